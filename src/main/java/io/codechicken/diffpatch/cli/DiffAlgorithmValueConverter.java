@@ -0,0 +1,11 @@
+package io.codechicken.diffpatch.cli;
+
+import io.codechicken.diffpatch.diff.DiffAlgorithm;
+import joptsimple.util.EnumConverter;
+
+public class DiffAlgorithmValueConverter extends EnumConverter<DiffAlgorithm> {
+
+    public DiffAlgorithmValueConverter() {
+        super(DiffAlgorithm.class);
+    }
+}
@@ -2,6 +2,7 @@ package io.codechicken.diffpatch.cli;
 
 import io.codechicken.diffpatch.diff.Differ;
 import io.codechicken.diffpatch.diff.PatienceDiffer;
+import io.codechicken.diffpatch.diff.StreamingDiffer;
 import io.codechicken.diffpatch.util.*;
 import io.codechicken.diffpatch.util.FileCollector.CollectedEntry;
 import io.codechicken.diffpatch.util.Input.MultiInput;
@@ -14,12 +15,16 @@ import net.covers1624.quack.util.SneakyUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static io.codechicken.diffpatch.util.LogLevel.*;
@@ -42,7 +47,10 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
     final Output patchOutput;
     final String lineEnding;
     final String[] ignorePrefixes;
-    private final Supplier<Differ> differFactory;
+    final Supplier<Differ> differFactory;
+    final Supplier<Differ> streamDifferFactory;
+    final long workBudget;
+    final int streamWindow;
 
     private DiffOperation(
             PrintStream logger,
@@ -58,7 +66,10 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
             Output patchOutput,
             String lineEnding,
             String[] ignorePrefixes,
-            Supplier<Differ> differFactory
+            Function<CharRepresenter, Differ> differFactory,
+            long workBudget,
+            int maxSharedTokens,
+            int streamWindow
     ) {
         super(logger, level, helpCallback);
         this.summary = summary;
@@ -71,7 +82,13 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
         this.patchOutput = patchOutput;
         this.lineEnding = lineEnding;
         this.ignorePrefixes = ignorePrefixes;
-        this.differFactory = differFactory;
+        // Thread safe CharRepresenters shared by the whole run, so common lines are only interned once.
+        Supplier<CharRepresenter> charRep = CharRepresenter.concurrentShared(maxSharedTokens);
+        this.differFactory = () -> differFactory.apply(charRep.get());
+        // Each streamed window is given its own CharRepresenter, so its lines are released with the window.
+        this.streamDifferFactory = () -> differFactory.apply(new CharRepresenter());
+        this.workBudget = workBudget;
+        this.streamWindow = streamWindow;
     }
 
     public static Builder builder() {
@@ -103,6 +120,14 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
             }
             SingleOutput output = (SingleOutput) patchOutput;
 
+            if (streamWindow > 0) {
+                boolean changes = doStreamingDiff(summary, base, changed, output);
+                if (this.summary) {
+                    summary.print(logger, true);
+                }
+                return new Result<>(changes ? 1 : 0, summary);
+            }
+
             List<String> lines = doDiff(summary, base.name(), changed.name(), base.readLines(), changed.readLines(), context, autoHeader);
             boolean changes = false;
             if (!lines.isEmpty()) {
@@ -235,7 +260,16 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
         } else if (bLines.isEmpty()) {
             patchFile.patches = Differ.makeFileRemoved(aLines);
         } else {
-            patchFile.patches = differFactory.get().makePatches(aLines, bLines, context, true);
+            Differ differ = differFactory.get();
+            differ.setLogger(msg -> log(INFO, "%s -> %s\n %s", aName, bName, msg));
+            if (workBudget > 0) {
+                differ.setWorkBudget(workBudget);
+            }
+            patchFile.patches = differ.makePatches(aLines, bLines, context, true);
+            if (differ.isBudgetExceeded()) {
+                log(WARN, "%s -> %s\n Exceeded the work budget, fell back to a cheaper diff.", aName, bName);
+                summary.fallbackFiles++;
+            }
         }
         if (patchFile.patches.isEmpty()) {
             log(DEBUG, "%s -> %s\n No changes.", aName, bName);
@@ -258,6 +292,65 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
         return patchFile.toLines(autoHeader);
     }
 
+    // Diffs the files without reading either into memory, the output is only opened once there is a change.
+    private boolean doStreamingDiff(DiffSummary summary, SingleInput base, SingleInput changed, SingleOutput output) throws IOException {
+        String aName = base.name() != null ? base.name() : "/dev/null";
+        String bName = changed.name() != null ? changed.name() : "/dev/null";
+        StreamingDiffer differ = new StreamingDiffer(() -> {
+            Differ windowDiffer = streamDifferFactory.get();
+            windowDiffer.setLogger(msg -> log(INFO, "%s -> %s\n %s", aName, bName, msg));
+            if (workBudget > 0) {
+                windowDiffer.setWorkBudget(workBudget);
+            }
+            return windowDiffer;
+        }, streamWindow, context);
+        long[] counts = new long[2];
+        PrintWriter[] out = new PrintWriter[1];
+        IOException[] error = new IOException[1];
+        try (BufferedReader reader1 = new BufferedReader(new InputStreamReader(base.open(), StandardCharsets.UTF_8));
+             BufferedReader reader2 = new BufferedReader(new InputStreamReader(changed.open(), StandardCharsets.UTF_8))) {
+            differ.diff(reader1, reader2, patch -> {
+                if (error[0] != null) return;
+                if (out[0] == null) {
+                    try {
+                        out[0] = new PrintWriter(output.open());
+                    } catch (IOException ex) {
+                        error[0] = ex;
+                        return;
+                    }
+                    out[0].print("--- " + aName + lineEnding);
+                    out[0].print("+++ " + bName + lineEnding);
+                }
+                out[0].print((autoHeader ? patch.getAutoHeader() : patch.getHeader()) + lineEnding);
+                for (Diff diff : patch.diffs) {
+                    out[0].print(diff + lineEnding);
+                    if (diff.op == Operation.INSERT) counts[0]++;
+                    if (diff.op == Operation.DELETE) counts[1]++;
+                }
+            });
+        } finally {
+            if (out[0] != null) {
+                out[0].close();
+            }
+        }
+        if (error[0] != null) throw error[0];
+
+        if (differ.isBudgetExceeded()) {
+            log(WARN, "%s -> %s\n Exceeded the work budget, fell back to a cheaper diff.", aName, bName);
+            summary.fallbackFiles++;
+        }
+        if (out[0] == null) {
+            log(DEBUG, "%s -> %s\n No changes.", aName, bName);
+            return false;
+        }
+        if (this.summary) {
+            summary.addedLines += counts[0];
+            summary.removedLines += counts[1];
+        }
+        log(this.summary ? INFO : DEBUG, "%s -> %s\n %d Added.\n %d Removed.", aName, bName, counts[0], counts[1]);
+        return true;
+    }
+
     public static class DiffSummary {
 
         public int unchangedFiles;
@@ -265,6 +358,8 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
         public int changedFiles;
         public int removedFiles;
 
+        public int fallbackFiles;
+
         public long addedLines;
         public long removedLines;
 
@@ -276,6 +371,9 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
                 logger.println(" Changed files:   " + changedFiles);
                 logger.println(" Removed files:   " + removedFiles);
             }
+            if (fallbackFiles > 0) {
+                logger.println(" Fallback files:  " + fallbackFiles);
+            }
 
             logger.println(" Added lines:     " + addedLines);
             logger.println(" Removed lines:   " + removedLines);
@@ -298,7 +396,10 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
         private String aPrefix = "a/";
         private String bPrefix = "b/";
         private String lineEnding = System.lineSeparator();
-        private Supplier<Differ> differFactory = PatienceDiffer::new;
+        private Function<CharRepresenter, Differ> differFactory = PatienceDiffer::new;
+        private long workBudget;
+        private int maxSharedTokens = CharRepresenter.DEFAULT_MAX_SHARED_TOKENS;
+        private int streamWindow;
 
         private final List<String> ignorePrefixes = new LinkedList<>();
 
@@ -379,7 +480,77 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
         }
 
         public Builder differFactory(Supplier<Differ> factory) {
-            differFactory = factory;
+            Objects.requireNonNull(factory);
+            differFactory = charRep -> factory.get();
+            return this;
+        }
+
+        /**
+         * Set the factory for the {@link Differ} used for each file, given
+         * a {@link CharRepresenter} shared by all files of the operation.
+         * <p>
+         * The shared {@link CharRepresenter} retains every distinct line and word it
+         * has seen until it is replaced, see {@link #maxSharedTokens(int)}.
+         *
+         * @param factory The factory.
+         * @return The same builder.
+         */
+        public Builder sharedDifferFactory(Function<CharRepresenter, Differ> factory) {
+            differFactory = Objects.requireNonNull(factory);
+            return this;
+        }
+
+        /**
+         * Limit the work done diffing each file, see {@link Differ#setWorkBudget(long)}.
+         * <p>
+         * Files exceeding it fall back to a cheaper diff, and are counted in {@link DiffSummary#fallbackFiles}.
+         *
+         * @param workBudget The budget, in line comparisons, {@code 0} for no limit.
+         * @return The same builder.
+         */
+        public Builder workBudget(long workBudget) {
+            if (workBudget < 0) throw new IllegalArgumentException("Work budget must not be negative.");
+
+            this.workBudget = workBudget;
+            return this;
+        }
+
+        /**
+         * Limit the size of the {@link CharRepresenter} shared by all files, see {@link #sharedDifferFactory}.
+         * <p>
+         * Each distinct line and word is retained by the shared representer, as a String and a token.
+         * Once it holds more than {@code maxSharedTokens} line or word tokens, files diffed
+         * afterwards are given a new representer, and the old one is released once the files
+         * using it are done. Peak retention is therefore about two representers of this size.
+         *
+         * @param maxSharedTokens The number of line or word tokens, defaults to {@link CharRepresenter#DEFAULT_MAX_SHARED_TOKENS}.
+         * @return The same builder.
+         */
+        public Builder maxSharedTokens(int maxSharedTokens) {
+            if (maxSharedTokens <= 0) throw new IllegalArgumentException("Max shared tokens must be positive.");
+
+            this.maxSharedTokens = maxSharedTokens;
+            return this;
+        }
+
+        /**
+         * Stream two single files through a {@link StreamingDiffer}, instead of reading them into memory.
+         * <p>
+         * At most {@code streamWindow} lines of each file are held at once, and hunks are written as
+         * they are found. Changes without unique lines near them may be matched less precisely than
+         * a full diff would, see {@link StreamingDiffer}. Folders and archives are always read fully.
+         * <p>
+         * Each window is diffed with a new {@link CharRepresenter}, rather than the one shared by
+         * the operation, so no lines are retained once their window is done. The work budget
+         * applies to each window, and a file is counted once if any of its windows fall back.
+         *
+         * @param streamWindow The window size, in lines, {@code 0} to read files fully.
+         * @return The same builder.
+         */
+        public Builder streamWindow(int streamWindow) {
+            if (streamWindow != 0 && streamWindow < 2) throw new IllegalArgumentException("Stream window must be 0 or at least 2.");
+
+            this.streamWindow = streamWindow;
             return this;
         }
 
@@ -402,7 +573,10 @@ public class DiffOperation extends CliOperation<DiffOperation.DiffSummary> {
                     patchesOutput,
                     lineEnding,
                     ignorePrefixes.toArray(new String[0]),
-                    differFactory
+                    differFactory,
+                    workBudget,
+                    maxSharedTokens,
+                    streamWindow
             );
         }
     }
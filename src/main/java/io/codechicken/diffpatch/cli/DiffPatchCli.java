@@ -1,5 +1,6 @@
 package io.codechicken.diffpatch.cli;
 
+import io.codechicken.diffpatch.diff.DiffAlgorithm;
 import io.codechicken.diffpatch.diff.Differ;
 import io.codechicken.diffpatch.match.FuzzyLineMatcher;
 import io.codechicken.diffpatch.util.Input;
@@ -96,6 +97,21 @@ public class DiffPatchCli {
                 .availableIf(doDiffOpt)
                 .withRequiredArg()
                 .withValuesConvertedBy(new ArchiveFormatValueConverter());
+        OptionSpec<DiffAlgorithm> algorithmOpt = parser.acceptsAll(asList("a", "algorithm"), "The diff algorithm to use.")
+                .availableIf(doDiffOpt)
+                .withRequiredArg()
+                .withValuesConvertedBy(new DiffAlgorithmValueConverter())
+                .defaultsTo(DiffAlgorithm.PATIENCE);
+        OptionSpec<Long> workBudgetOpt = parser.acceptsAll(asList("work-budget"), "The maximum work, in line comparisons, to diff a single file. Files exceeding it fall back to a cheaper diff. 0 for no limit.")
+                .availableIf(doDiffOpt)
+                .withRequiredArg()
+                .ofType(Long.class)
+                .defaultsTo(0L);
+        OptionSpec<Integer> streamWindowOpt = parser.acceptsAll(asList("stream-window"), "Stream single files through a window of this many lines, instead of reading them into memory. 0 to read files fully.")
+                .availableIf(doDiffOpt)
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(0);
 
         //Patch specific
         OptionSpec<Void> doPatchOpt = parser.acceptsAll(asList("p", "patch"), "Does a Patch operation.");
@@ -122,6 +138,8 @@ public class DiffPatchCli {
                 .withRequiredArg()
                 .withValuesConvertedBy(new PatchModeValueConverter())
                 .defaultsTo(PatchMode.EXACT);
+        OptionSpec<Void> fuzzyPrefilterOpt = parser.acceptsAll(asList("fuzzy-prefilter"), "Only search for fuzzy matches near lines sharing rare words with the patch, falling back to a full search.")
+                .availableIf(doPatchOpt);
         OptionSpec<ArchiveFormat> patchesArchiveOpt = parser.acceptsAll(asList("N", "archive-patches"), "Treat the patches path as an archive.")
                 .availableIf(doPatchOpt)
                 .withRequiredArg()
@@ -183,6 +201,9 @@ public class DiffPatchCli {
                     .summary(summary)
                     .autoHeader(optSet.has(autoHeaderOpt))
                     .context(optSet.valueOf(contextOpt))
+                    .sharedDifferFactory(optSet.valueOf(algorithmOpt).factory)
+                    .workBudget(optSet.valueOf(workBudgetOpt))
+                    .streamWindow(optSet.valueOf(streamWindowOpt))
                     .aPrefix(optSet.valueOf(basePathPrefixOpt))
                     .bPrefix(optSet.valueOf(modifiedPathPrefixOpt))
                     .lineEnding(lineEnding.chars)
@@ -225,6 +246,7 @@ public class DiffPatchCli {
                     .minFuzz(optSet.valueOf(fuzzOpt))
                     .maxOffset(optSet.valueOf(offsetOpt))
                     .mode(optSet.valueOf(modeOpt))
+                    .fuzzyPrefilter(optSet.has(fuzzyPrefilterOpt))
                     .patchesPrefix(optSet.valueOf(patchPrefix))
                     .aPrefix(optSet.valueOf(basePathPrefixOpt))
                     .bPrefix(optSet.valueOf(modifiedPathPrefixOpt))
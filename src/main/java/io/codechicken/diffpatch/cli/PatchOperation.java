@@ -21,6 +21,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static io.codechicken.diffpatch.util.LogLevel.*;
 import static io.codechicken.diffpatch.util.Utils.filterPrefixed;
@@ -41,11 +42,14 @@ public class PatchOperation extends CliOperation<PatchOperation.PatchesSummary>
     final float minFuzz;
     final int maxOffset;
     final PatchMode mode;
+    final boolean fuzzyPrefilter;
     final String patchesPrefix;
     final String lineEnding;
     final String[] ignorePrefixes;
+    // Shared by every file patched, so common lines and words are only interned once.
+    private final Supplier<CharRepresenter> charRep = CharRepresenter.concurrentShared(CharRepresenter.DEFAULT_MAX_SHARED_TOKENS);
 
-    private PatchOperation(PrintStream logger, LogLevel level, Consumer<PrintStream> helpCallback, boolean summary, Input baseInput, Input patchesInput, String aPrefix, String bPrefix, Output patchedOutput, @Nullable Output rejectsOutput, float minFuzz, int maxOffset, PatchMode mode, String patchesPrefix, String lineEnding, String[] ignorePrefixes) {
+    private PatchOperation(PrintStream logger, LogLevel level, Consumer<PrintStream> helpCallback, boolean summary, Input baseInput, Input patchesInput, String aPrefix, String bPrefix, Output patchedOutput, @Nullable Output rejectsOutput, float minFuzz, int maxOffset, PatchMode mode, boolean fuzzyPrefilter, String patchesPrefix, String lineEnding, String[] ignorePrefixes) {
         super(logger, level, helpCallback);
         this.summary = summary;
         this.baseInput = baseInput;
@@ -57,6 +61,7 @@ public class PatchOperation extends CliOperation<PatchOperation.PatchesSummary>
         this.minFuzz = minFuzz;
         this.maxOffset = maxOffset;
         this.mode = mode;
+        this.fuzzyPrefilter = fuzzyPrefilter;
         this.patchesPrefix = patchesPrefix;
         this.lineEnding = lineEnding;
         this.ignorePrefixes = ignorePrefixes;
@@ -233,7 +238,8 @@ public class PatchOperation extends CliOperation<PatchOperation.PatchesSummary>
     }
 
     private boolean doPatch(FileCollector outputCollector, FileCollector rejectCollector, PatchesSummary summary, String baseName, List<String> base, PatchFile patchFile, float minFuzz, int maxOffset, PatchMode mode) {
-        Patcher patcher = new Patcher(patchFile, base, minFuzz, maxOffset);
+        Patcher patcher = new Patcher(patchFile, base, charRep.get(), minFuzz, maxOffset);
+        patcher.setFuzzyPrefilter(fuzzyPrefilter);
         log(DEBUG, "Patching: " + baseName);
         List<Patcher.Result> results = patcher.patch(mode);
         List<String> rejectLines = new ArrayList<>();
@@ -379,6 +385,7 @@ public class PatchOperation extends CliOperation<PatchOperation.PatchesSummary>
         private float minFuzz = FuzzyLineMatcher.DEFAULT_MIN_MATCH_SCORE;
         private int maxOffset = FuzzyLineMatcher.MatchMatrix.DEFAULT_MAX_OFFSET;
         private PatchMode mode = PatchMode.EXACT;
+        private boolean fuzzyPrefilter;
         private String patchesPrefix = "";
 
         private String aPrefix = "a/";
@@ -463,6 +470,20 @@ public class PatchOperation extends CliOperation<PatchOperation.PatchesSummary>
             return this;
         }
 
+        /**
+         * Only score fuzzy matches near lines sharing the rarest words of each hunk's context,
+         * searching the whole file only when none of them match.
+         * <p>
+         * Much faster for large files, but may pick a different match than the full search.
+         *
+         * @param fuzzyPrefilter If the prefilter should be used.
+         * @return The same builder.
+         */
+        public Builder fuzzyPrefilter(boolean fuzzyPrefilter) {
+            this.fuzzyPrefilter = fuzzyPrefilter;
+            return this;
+        }
+
         public Builder patchesPrefix(String patchesPrefix) {
             this.patchesPrefix = Objects.requireNonNull(patchesPrefix);
             return this;
@@ -483,7 +504,7 @@ public class PatchOperation extends CliOperation<PatchOperation.PatchesSummary>
             if (patchesInput == null) throw new IllegalStateException("patchesInput is required.");
             if (patchedOutput == null) throw new IllegalStateException("patchedOutput is required.");
 
-            return new PatchOperation(logger, level, helpCallback, summary, baseInput, patchesInput, aPrefix, bPrefix, patchedOutput, rejectsOutput, minFuzz, maxOffset, mode, patchesPrefix, lineEnding, ignorePrefixes.toArray(new String[0]));
+            return new PatchOperation(logger, level, helpCallback, summary, baseInput, patchesInput, aPrefix, bPrefix, patchedOutput, rejectsOutput, minFuzz, maxOffset, mode, fuzzyPrefilter, patchesPrefix, lineEnding, ignorePrefixes.toArray(new String[0]));
         }
     }
 }
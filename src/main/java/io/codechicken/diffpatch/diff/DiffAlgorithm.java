@@ -0,0 +1,21 @@
+package io.codechicken.diffpatch.diff;
+
+import io.codechicken.diffpatch.util.CharRepresenter;
+
+import java.util.function.Function;
+
+/**
+ * The {@link Differ} implementations selectable from the CLI.
+ */
+public enum DiffAlgorithm {
+    PATIENCE(PatienceDiffer::new),
+    LINE_MATCHED(LineMatchedDiffer::new),
+    MYERS(MyersDiffer::new),
+    HISTOGRAM(HistogramDiffer::new);
+
+    public final Function<CharRepresenter, Differ> factory;
+
+    DiffAlgorithm(Function<CharRepresenter, Differ> factory) {
+        this.factory = factory;
+    }
+}
@@ -1,15 +1,21 @@
 package io.codechicken.diffpatch.diff;
 
 import io.codechicken.diffpatch.match.LineMatching;
+import io.codechicken.diffpatch.match.WorkBudget;
 import io.codechicken.diffpatch.util.CharRepresenter;
 import io.codechicken.diffpatch.util.Diff;
+import io.codechicken.diffpatch.util.EditScript;
+import io.codechicken.diffpatch.util.LineRange;
 import io.codechicken.diffpatch.util.Operation;
 import io.codechicken.diffpatch.util.Patch;
 import net.covers1624.quack.collection.FastStream;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public abstract class Differ {
 
@@ -17,6 +23,13 @@ public abstract class Differ {
 
     protected final CharRepresenter charRep;
 
+    // line comparisons allowed for each match, 0 for no limit
+    private long workBudget;
+    private @Nullable WorkBudget budget;
+    private boolean budgetExceeded;
+
+    private @Nullable Consumer<String> logger;
+
     public Differ() {
         this(null);
     }
@@ -30,6 +43,51 @@ public abstract class Differ {
 
     public abstract int[] match(List<String> lines1, List<String> lines2);
 
+    /**
+     * Run a match within this differ's work budget, falling back to {@link #matchEnds} if it is exceeded.
+     * <p>
+     * The budget remains available from {@link #getBudget()}, for any further stages of the same match.
+     *
+     * @param tokens1 The tokens of the first file.
+     * @param tokens2 The tokens of the second file.
+     * @param matcher The match, given the budget to charge, or {@code null} if unlimited.
+     * @return The matches.
+     */
+    protected int[] matchWithinBudget(int[] tokens1, int[] tokens2, Function<WorkBudget, int[]> matcher) {
+        budgetExceeded = false;
+        budget = workBudget > 0 ? new WorkBudget(workBudget) : null;
+        try {
+            return matcher.apply(budget);
+        } catch (WorkBudget.ExceededException ex) {
+            budgetExceeded = true;
+            return matchEnds(tokens1, tokens2);
+        }
+    }
+
+    /**
+     * The cheapest match, only matching the identical lines at the start and end of both files,
+     * leaving everything between them as a single replaced block.
+     *
+     * @param tokens1 The tokens of the first file.
+     * @param tokens2 The tokens of the second file.
+     * @return The matches.
+     */
+    public static int[] matchEnds(int[] tokens1, int[] tokens2) {
+        int[] matches = new int[tokens1.length];
+        Arrays.fill(matches, -1);
+        int start = 0;
+        while (start < tokens1.length && start < tokens2.length && tokens1[start] == tokens2[start]) {
+            matches[start] = start;
+            start++;
+        }
+        int end1 = tokens1.length;
+        int end2 = tokens2.length;
+        while (end1 > start && end2 > start && tokens1[end1 - 1] == tokens2[end2 - 1]) {
+            matches[--end1] = --end2;
+        }
+        return matches;
+    }
+
     public List<Diff> diff(List<String> lines1, List<String> lines2) {
         return LineMatching.makeDiffList(match(lines1, lines2), lines1, lines2);
     }
@@ -39,7 +97,74 @@ public abstract class Differ {
     }
 
     public List<Patch> makePatches(List<String> lines1, List<String> lines2, int numContextLines, boolean collate) {
-        return makePatches(diff(lines1, lines2), numContextLines, collate);
+        // Only create Diffs for lines within hunks.
+        return EditScript.fromMatches(match(lines1, lines2), lines1, lines2).toPatches(numContextLines, collate);
+    }
+
+    /**
+     * Update a previous match after an edit to the modified lines, only matching the lines between
+     * the nearest matched lines either side of the edit again.
+     * <p>
+     * Lines outside the edit keep their previous match. The result is a valid match, but may differ
+     * from matching the whole file again.
+     *
+     * @param oldMatches The previous result of {@link #match}, for the lines before the edit.
+     * @param lines1     The base lines.
+     * @param lines2     The modified lines, after the edit.
+     * @param oldRange2  The edited range, in the modified lines before the edit.
+     * @param newRange2  The edited range, in the modified lines after the edit. Must start at the same line as {@code oldRange2}.
+     * @return The new matches.
+     */
+    public int[] rematch(int[] oldMatches, List<String> lines1, List<String> lines2, LineRange oldRange2, LineRange newRange2) {
+        if (oldMatches.length != lines1.size()) throw new IllegalArgumentException("Expected " + lines1.size() + " matches, got: " + oldMatches.length);
+        if (oldRange2.getStart() != newRange2.getStart()) throw new IllegalArgumentException("Edited ranges must start at the same line, got: " + oldRange2.getStart() + " and " + newRange2.getStart());
+
+        int shift = newRange2.getEnd() - oldRange2.getEnd();
+        int[] matches = new int[oldMatches.length];
+        // The last base line matched before the edit, and the first matched after it.
+        int before = -1;
+        int after = matches.length;
+        for (int i = 0; i < matches.length; i++) {
+            int m = oldMatches[i];
+            if (m >= oldRange2.getEnd()) {
+                m += shift;
+                if (after == matches.length) {
+                    after = i;
+                }
+            } else if (m >= oldRange2.getStart()) {
+                m = -1;
+            } else if (m >= 0) {
+                before = i;
+            }
+            matches[i] = m;
+        }
+
+        int start1 = before + 1;
+        int start2 = before < 0 ? 0 : matches[before] + 1;
+        int end2 = after == matches.length ? lines2.size() : matches[after];
+        int[] region = match(lines1.subList(start1, after), lines2.subList(start2, end2));
+        for (int i = 0; i < region.length; i++) {
+            matches[start1 + i] = region[i] < 0 ? -1 : start2 + region[i];
+        }
+        return matches;
+    }
+
+    /**
+     * Update previous patches after an edit to the modified lines.
+     *
+     * @param oldPatches      The previous patches, for the lines before the edit.
+     * @param lines1          The base lines.
+     * @param lines2          The modified lines, after the edit.
+     * @param oldRange2       The edited range, in the modified lines before the edit.
+     * @param newRange2       The edited range, in the modified lines after the edit.
+     * @param numContextLines The number of context lines for each patch.
+     * @param collate         If the patches should be collated.
+     * @return The new patches.
+     * @see #rematch
+     */
+    public List<Patch> remakePatches(List<Patch> oldPatches, List<String> lines1, List<String> lines2, LineRange oldRange2, LineRange newRange2, int numContextLines, boolean collate) {
+        int[] matches = rematch(LineMatching.fromPatches(oldPatches, lines1.size()), lines1, lines2, oldRange2, newRange2);
+        return EditScript.fromMatches(matches, lines1, lines2).toPatches(numContextLines, collate);
     }
 
     public static List<Patch> makeFileAdded(List<String> lines) {
@@ -66,6 +191,46 @@ public abstract class Differ {
         return p.split(numContextLines);
     }
 
+    /**
+     * Renumber the tokens of both files densely, in place, if the {@link CharRepresenter}
+     * holds many more tokens than the files could have produced.
+     * <p>
+     * A {@link CharRepresenter} shared across a run accumulates the tokens of every file, while
+     * matchers allocate per token state. Matching only depends on token equality.
+     *
+     * @param tokens1  The tokens of the first file.
+     * @param tokens2  The tokens of the second file.
+     * @param maxToken The exclusive upper bound of the tokens.
+     * @return The new exclusive upper bound of the tokens.
+     */
+    protected static int compactTokens(int[] tokens1, int[] tokens2, int maxToken) {
+        int n = tokens1.length + tokens2.length;
+        if (maxToken <= n + 1) return maxToken;
+
+        int cap = Integer.highestOneBit(Math.max(4, n) * 2 - 1) << 1;
+        int mask = cap - 1;
+        int[] keys = new int[cap];
+        int[] values = new int[cap];
+        Arrays.fill(keys, -1);
+        // Keep 0 free, as CharRepresenter does.
+        int next = 1;
+        for (int[] tokens : new int[][] { tokens1, tokens2 }) {
+            for (int i = 0; i < tokens.length; i++) {
+                int token = tokens[i];
+                int slot = (token * 0x9E3779B9 >>> 1) & mask;
+                while (keys[slot] != -1 && keys[slot] != token) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] == -1) {
+                    keys[slot] = token;
+                    values[slot] = next++;
+                }
+                tokens[i] = values[slot];
+            }
+        }
+        return next;
+    }
+
     private static Patch make(List<String> lines, Operation op) {
         Patch patch = new Patch();
         patch.diffs = FastStream.of(lines).map(l -> new Diff(op, l)).toList();
@@ -73,7 +238,22 @@ public abstract class Differ {
         return patch;
     }
 
+    protected void log(String format, Object... args) {
+        if (logger != null) {
+            logger.accept(String.format(format, args));
+        }
+    }
+
     public CharRepresenter getCharRep() {
         return charRep;
     }
+
+    //@formatter:off
+    public long getWorkBudget() { return workBudget; }
+    public void setWorkBudget(long workBudget) { this.workBudget = workBudget; }
+    public boolean isBudgetExceeded() { return budgetExceeded; }
+    protected @Nullable WorkBudget getBudget() { return budget; }
+    protected void setBudgetExceeded(boolean budgetExceeded) { this.budgetExceeded = budgetExceeded; }
+    public void setLogger(@Nullable Consumer<String> logger) { this.logger = logger; }
+    //@formatter:on
 }
@@ -0,0 +1,38 @@
+package io.codechicken.diffpatch.diff;
+
+import io.codechicken.diffpatch.match.HistogramMatch;
+import io.codechicken.diffpatch.util.CharRepresenter;
+
+import java.util.List;
+
+/**
+ * A {@link Differ} using {@link HistogramMatch}.
+ * <p>
+ * Produces similar results to {@link PatienceDiffer}, but also anchors on low occurrence
+ * lines, such as repeated braces and annotations, instead of only unique ones.
+ */
+public class HistogramDiffer extends Differ {
+
+    private int maxChainLength = HistogramMatch.DEFAULT_MAX_CHAIN_LENGTH;
+
+    public HistogramDiffer() {
+        this(null);
+    }
+
+    public HistogramDiffer(CharRepresenter charRep) {
+        super(charRep);
+    }
+
+    @Override
+    public int[] match(List<String> lines1, List<String> lines2) {
+        int[] lineModeTokens1 = charRep.linesToTokens(lines1);
+        int[] lineModeTokens2 = charRep.linesToTokens(lines2);
+        int maxToken = compactTokens(lineModeTokens1, lineModeTokens2, charRep.getMaxLineToken());
+        return matchWithinBudget(lineModeTokens1, lineModeTokens2, budget -> new HistogramMatch(maxChainLength).setBudget(budget).match(lineModeTokens1, lineModeTokens2, maxToken));
+    }
+
+    //@formatter:off
+    public int getMaxChainLength() { return maxChainLength; }
+    public void setMaxChainLength(int maxChainLength) { this.maxChainLength = maxChainLength; }
+    //@formatter:on
+}
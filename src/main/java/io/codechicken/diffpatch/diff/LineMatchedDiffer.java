@@ -1,22 +1,38 @@
 package io.codechicken.diffpatch.diff;
 
 import io.codechicken.diffpatch.match.FuzzyLineMatcher;
+import io.codechicken.diffpatch.match.LineMatching;
+import io.codechicken.diffpatch.match.PatienceMatch;
+import io.codechicken.diffpatch.match.WorkBudget;
 import io.codechicken.diffpatch.util.CharRepresenter;
-import net.covers1624.quack.collection.FastStream;
+import io.codechicken.diffpatch.util.LineRange;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by covers1624 on 15/5/21.
  */
 public class LineMatchedDiffer extends PatienceDiffer {
 
-    private List<String> wordModeLines1 = new ArrayList<>();
-    private List<String> wordModeLines2 = new ArrayList<>();
+    /**
+     * The default maximum area, lines on one side times the other, of an unmatched range to fuzzy match.
+     */
+    public static final long DEFAULT_MAX_FUZZY_AREA = 2048 * 2048;
+
+    private List<int[]> wordModeLines1 = Collections.emptyList();
+    private List<int[]> wordModeLines2 = Collections.emptyList();
 
     private int maxMatchOffset = FuzzyLineMatcher.MatchMatrix.DEFAULT_MAX_OFFSET;
     private float minMatchScore = FuzzyLineMatcher.DEFAULT_MIN_MATCH_SCORE;
+    private long maxFuzzyArea = DEFAULT_MAX_FUZZY_AREA;
 
     public LineMatchedDiffer() {
         super();
@@ -29,21 +45,128 @@ public class LineMatchedDiffer extends PatienceDiffer {
     @Override
     public int[] match(List<String> lines1, List<String> lines2) {
         int[] matches = super.match(lines1, lines2);
-        wordModeLines1 = FastStream.of(lines1).map(charRep::wordsToChars).toList();
-        wordModeLines2 = FastStream.of(lines2).map(charRep::wordsToChars).toList();
+        if (isBudgetExceeded()) return matches;
+
+        if (maxFuzzyArea > 0) {
+            limitRangeArea(matches, lines1, lines2);
+        }
+
+        // Only lines in unmatched ranges are needed in word mode, convert them on demand.
+        wordModeLines1 = new WordModeLines(lines1, charRep);
+        wordModeLines2 = new WordModeLines(lines2, charRep);
         FuzzyLineMatcher matcher = new FuzzyLineMatcher();
         matcher.maxMatchOffset = maxMatchOffset;
         matcher.minMatchScore = minMatchScore;
-        matcher.matchLinesByWords(matches, wordModeLines1, wordModeLines2);
+        if (isParallel()) {
+            matcher.executor = ForkJoinPool.commonPool();
+        }
+        matcher.budget = getBudget();
+        matcher.maxRangeArea = maxFuzzyArea;
+        try {
+            matcher.matchLinesByWords(matches, wordModeLines1, wordModeLines2);
+        } catch (WorkBudget.ExceededException ex) {
+            // Nothing has been fuzzy matched yet, return the patience matches plus any anchors from limitRangeArea.
+            setBudgetExceeded(true);
+        }
         return matches;
     }
 
     //@formatter:off
-    public List<String> getWordModeLines1() { return wordModeLines1; }
-    public List<String> getWordModeLines2() { return wordModeLines2; }
+    public List<int[]> getWordModeLines1() { return wordModeLines1; }
+    public List<int[]> getWordModeLines2() { return wordModeLines2; }
     public int getMaxMatchOffset() { return maxMatchOffset; }
     public void setMaxMatchOffset(int maxMatchOffset) { this.maxMatchOffset = maxMatchOffset; }
     public float getMinMatchScore() { return minMatchScore; }
     public void setMinMatchScore(float minMatchScore) { this.minMatchScore = minMatchScore; }
+    public long getMaxFuzzyArea() { return maxFuzzyArea; }
+    public void setMaxFuzzyArea(long maxFuzzyArea) { this.maxFuzzyArea = maxFuzzyArea; }
     //@formatter:on
+
+    // Unmatched ranges above maxFuzzyArea are almost always whole block rewrites, where fuzzy matching is slow and finds little.
+    // Split them at lines equal ignoring surrounding whitespace, then leave any parts still too large unmatched.
+    private void limitRangeArea(int[] matches, List<String> lines1, List<String> lines2) {
+        boolean split = false;
+        for (Pair<LineRange, LineRange> entry : LineMatching.unmatchedRanges(matches, lines2.size())) {
+            LineRange range1 = entry.getLeft();
+            LineRange range2 = entry.getRight();
+            if ((long) range1.getLength() * range2.getLength() <= maxFuzzyArea) continue;
+
+            int anchors = matchTrimmedAnchors(matches, lines1, range1, lines2, range2);
+            log("Unmatched range of %d x %d lines at %d -> %d exceeds the max fuzzy area, split at %d anchors.",
+                    range1.getLength(), range2.getLength(), range1.getStart() + 1, range2.getStart() + 1, anchors);
+            split = true;
+        }
+        if (!split) return;
+
+        for (Pair<LineRange, LineRange> entry : LineMatching.unmatchedRanges(matches, lines2.size())) {
+            LineRange range1 = entry.getLeft();
+            LineRange range2 = entry.getRight();
+            if ((long) range1.getLength() * range2.getLength() > maxFuzzyArea) {
+                log("Skipped fuzzy matching %d x %d lines at %d -> %d.", range1.getLength(), range2.getLength(), range1.getStart() + 1, range2.getStart() + 1);
+            }
+        }
+    }
+
+    // Matches the lines in order, which are equal ignoring surrounding whitespace and unique within both ranges.
+    private static int matchTrimmedAnchors(int[] matches, List<String> lines1, LineRange range1, List<String> lines2, LineRange range2) {
+        Object2IntOpenHashMap<String> unique1 = uniqueTrimmed(lines1, range1);
+        Object2IntOpenHashMap<String> unique2 = uniqueTrimmed(lines2, range2);
+        IntList common1 = new IntArrayList();
+        IntList common2 = new IntArrayList();
+        for (int i = range1.getStart(); i < range1.getEnd(); i++) {
+            String line = lines1.get(i).trim();
+            int j = unique2.getInt(line);
+            if (j >= 0 && unique1.getInt(line) == i) {
+                common1.add(i);
+                common2.add(j);
+            }
+        }
+
+        int[] las = PatienceMatch.lasIndices(common2);
+        for (int k : las) {
+            matches[common1.getInt(k)] = common2.getInt(k);
+        }
+        return las.length;
+    }
+
+    // trimmed line -> index, or -1 if repeated. Blank lines are ignored.
+    private static Object2IntOpenHashMap<String> uniqueTrimmed(List<String> lines, LineRange range) {
+        Object2IntOpenHashMap<String> unique = new Object2IntOpenHashMap<>();
+        unique.defaultReturnValue(-2);
+        for (int i = range.getStart(); i < range.getEnd(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty()) continue;
+
+            unique.put(line, unique.getInt(line) == -2 ? i : -1);
+        }
+        return unique;
+    }
+
+    // A view of lines in word mode, converting each line on first access.
+    private static class WordModeLines extends AbstractList<int[]> implements RandomAccess {
+
+        private final List<String> lines;
+        private final CharRepresenter charRep;
+        private final int[][] tokens;
+
+        private WordModeLines(List<String> lines, CharRepresenter charRep) {
+            this.lines = lines;
+            this.charRep = charRep;
+            tokens = new int[lines.size()][];
+        }
+
+        @Override
+        public int[] get(int index) {
+            int[] line = tokens[index];
+            if (line == null) {
+                line = tokens[index] = charRep.wordsToTokens(lines.get(index));
+            }
+            return line;
+        }
+
+        @Override
+        public int size() {
+            return tokens.length;
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package io.codechicken.diffpatch.diff;
+
+import io.codechicken.diffpatch.match.MyersMatch;
+import io.codechicken.diffpatch.util.CharRepresenter;
+
+import java.util.List;
+
+/**
+ * A {@link Differ} producing minimal diffs via {@link MyersMatch}.
+ * <p>
+ * Prefer this over {@link PatienceDiffer} for inputs with few unique lines,
+ * where patience matching finds no anchors and degrades to large hunks.
+ */
+public class MyersDiffer extends Differ {
+
+    public MyersDiffer() {
+        this(null);
+    }
+
+    public MyersDiffer(CharRepresenter charRep) {
+        super(charRep);
+    }
+
+    @Override
+    public int[] match(List<String> lines1, List<String> lines2) {
+        int[] lineModeTokens1 = charRep.linesToTokens(lines1);
+        int[] lineModeTokens2 = charRep.linesToTokens(lines2);
+        return matchWithinBudget(lineModeTokens1, lineModeTokens2, budget -> new MyersMatch().setBudget(budget).match(lineModeTokens1, lineModeTokens2));
+    }
+}
@@ -4,9 +4,13 @@ import io.codechicken.diffpatch.match.PatienceMatch;
 import io.codechicken.diffpatch.util.CharRepresenter;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class PatienceDiffer extends Differ {
 
+    private boolean parallel;
+    private int parallelThreshold = PatienceMatch.DEFAULT_PARALLEL_THRESHOLD;
+
     public PatienceDiffer() {
         this(null);
     }
@@ -17,8 +21,17 @@ public class PatienceDiffer extends Differ {
 
     @Override
     public int[] match(List<String> lines1, List<String> lines2) {
-        String lineModeString1 = charRep.linesToChars(lines1);
-        String lineModeString2 = charRep.linesToChars(lines2);
-        return new PatienceMatch().match(lineModeString1, lineModeString2, charRep.getMaxLineChar());
+        int[] lineModeTokens1 = charRep.linesToTokens(lines1);
+        int[] lineModeTokens2 = charRep.linesToTokens(lines2);
+        int maxToken = compactTokens(lineModeTokens1, lineModeTokens2, charRep.getMaxLineToken());
+        PatienceMatch match = parallel ? new PatienceMatch(ForkJoinPool.commonPool(), parallelThreshold) : new PatienceMatch();
+        return matchWithinBudget(lineModeTokens1, lineModeTokens2, budget -> match.setBudget(budget).match(lineModeTokens1, lineModeTokens2, maxToken));
     }
+
+    //@formatter:off
+    public boolean isParallel() { return parallel; }
+    public int getParallelThreshold() { return parallelThreshold; }
+    public void setParallel(boolean parallel) { this.parallel = parallel; }
+    public void setParallelThreshold(int parallelThreshold) { this.parallelThreshold = parallelThreshold; }
+    //@formatter:on
 }
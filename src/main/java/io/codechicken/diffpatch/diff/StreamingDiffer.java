@@ -0,0 +1,272 @@
+package io.codechicken.diffpatch.diff;
+
+import io.codechicken.diffpatch.util.Diff;
+import io.codechicken.diffpatch.util.HashedLines;
+import io.codechicken.diffpatch.util.Operation;
+import io.codechicken.diffpatch.util.Patch;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Diffs two inputs incrementally, holding at most a window of lines from each in memory.
+ * <p>
+ * Each window pair is diffed with a fresh {@link Differ}, and the diff is kept up to an anchor: an equal
+ * line which is unique in both windows, preferably in the second quarter of the windows. The lines up to it
+ * are dropped and the windows are refilled. Hunks are only emitted once followed by more than twice the
+ * context of equal lines, so a change spanning an anchor is still a single hunk. Where both inputs fit
+ * in a window, they are diffed at once, as {@link Differ#makePatches} would.
+ * <p>
+ * Windows with no anchor are changed throughout, their first half is kept as it was matched.
+ * A hunk longer than a window is emitted in several adjacent parts, so memory stays bounded.
+ */
+public class StreamingDiffer {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+
+    private final Supplier<Differ> differFactory;
+    private final int windowSize;
+    private final int context;
+
+    private boolean budgetExceeded;
+
+    public StreamingDiffer() {
+        this(PatienceDiffer::new, DEFAULT_WINDOW_SIZE, Differ.DEFAULT_CONTEXT);
+    }
+
+    /**
+     * @param differFactory The factory for the {@link Differ} used for each window.
+     * @param windowSize    The maximum number of lines held from each input.
+     * @param context       The number of context lines for each hunk.
+     */
+    public StreamingDiffer(Supplier<Differ> differFactory, int windowSize, int context) {
+        if (windowSize < 2) throw new IllegalArgumentException("Window size must be at least 2, got: " + windowSize);
+        if (context < 0) throw new IllegalArgumentException("Context must not be negative, got: " + context);
+
+        this.differFactory = differFactory;
+        this.windowSize = windowSize;
+        this.context = context;
+    }
+
+    /**
+     * Diff the given inputs, passing each hunk to the output as soon as it is final.
+     * <p>
+     * Hunks are emitted in order, with line numbers relative to the start of the inputs.
+     * Afterwards, {@link #isBudgetExceeded()} reports whether any window fell back to a cheaper diff.
+     *
+     * @param reader1 The base input.
+     * @param reader2 The modified input.
+     * @param output  The consumer for each hunk.
+     * @throws IOException If an IO error occurs reading either input.
+     */
+    public void diff(BufferedReader reader1, BufferedReader reader2, Consumer<Patch> output) throws IOException {
+        List<String> window1 = new ArrayList<>();
+        List<String> window2 = new ArrayList<>();
+        boolean eof1 = false;
+        boolean eof2 = false;
+        // Diffs kept from previous windows, but not yet part of an emitted hunk.
+        Patch pending = new Patch();
+        pending.diffs = new ArrayList<>();
+        budgetExceeded = false;
+        while (true) {
+            eof1 = eof1 || fill(reader1, window1);
+            eof2 = eof2 || fill(reader2, window2);
+            boolean last = eof1 && eof2;
+
+            Differ differ = differFactory.get();
+            List<Diff> diffs = differ.diff(new HashedLines(window1), new HashedLines(window2));
+            budgetExceeded |= differ.isBudgetExceeded();
+            int cut = last ? diffs.size() : cutPoint(diffs, window1, window2);
+            List<Diff> kept = diffs.subList(0, cut);
+            pending.diffs.addAll(kept);
+            if (last) break;
+
+            int consumed1 = 0;
+            int consumed2 = 0;
+            for (Diff diff : kept) {
+                if (diff.op != Operation.INSERT) consumed1++;
+                if (diff.op != Operation.DELETE) consumed2++;
+            }
+            window1.subList(0, consumed1).clear();
+            window2.subList(0, consumed2).clear();
+            emitFinal(pending, output);
+        }
+
+        pending.recalculateLength();
+        pending.trim(context);
+        if (!pending.diffs.isEmpty()) {
+            for (Patch p : pending.split(context)) {
+                output.accept(p);
+            }
+        }
+    }
+
+    /**
+     * Diff the given inputs, writing a unified diff to the output.
+     *
+     * @param reader1     The base input.
+     * @param reader2     The modified input.
+     * @param basePath    The path to write in the {@code ---} header.
+     * @param patchedPath The path to write in the {@code +++} header.
+     * @param out         The output.
+     * @param lineEnding  The line ending to write.
+     * @throws IOException If an IO error occurs.
+     */
+    public void diff(BufferedReader reader1, BufferedReader reader2, String basePath, String patchedPath, Writer out, String lineEnding) throws IOException {
+        out.write("--- " + basePath + lineEnding);
+        out.write("+++ " + patchedPath + lineEnding);
+        IOException[] error = new IOException[1];
+        diff(reader1, reader2, patch -> {
+            if (error[0] != null) return;
+            try {
+                out.write(patch.getHeader() + lineEnding);
+                for (Diff diff : patch.diffs) {
+                    out.write(diff + lineEnding);
+                }
+            } catch (IOException ex) {
+                error[0] = ex;
+            }
+        });
+        if (error[0] != null) throw error[0];
+    }
+
+    // Returns true if the end of the input was reached.
+    private boolean fill(BufferedReader reader, List<String> window) throws IOException {
+        while (window.size() < windowSize) {
+            String line = reader.readLine();
+            if (line == null) return true;
+
+            window.add(line);
+        }
+        return false;
+    }
+
+    // Emits the hunks of pending which no later change can join, and drops the lines before the next hunk's context.
+    private void emitFinal(Patch pending, Consumer<Patch> output) {
+        List<Diff> diffs = pending.diffs;
+        // Equal lines further than the context before the first change are never part of a hunk.
+        int lead = 0;
+        while (lead < diffs.size() && diffs.get(lead).op == Operation.EQUAL) {
+            lead++;
+        }
+        if (lead < diffs.size() && lead > context) {
+            drop(pending, lead - context);
+        }
+
+        int end = diffs.size();
+        while (end > 0 && diffs.get(end - 1).op == Operation.EQUAL) {
+            end--;
+        }
+        if (end == 0) {
+            // Only equal lines, keep those which may be context for the next hunk.
+            drop(pending, diffs.size() - Math.min(context, diffs.size()));
+            return;
+        }
+
+        // The last run of equal lines longer than twice the context, hunks either side of it are split.
+        int gapStart = end;
+        int gapEnd = diffs.size();
+        if (gapEnd - gapStart <= context * 2) {
+            gapStart = gapEnd = -1;
+            int run = 0;
+            for (int i = end - 1; i >= 0; i--) {
+                if (diffs.get(i).op == Operation.EQUAL) {
+                    run++;
+                    continue;
+                }
+                if (run > context * 2) {
+                    gapStart = i + 1;
+                    gapEnd = i + 1 + run;
+                    break;
+                }
+                run = 0;
+            }
+        }
+        if (gapStart >= 0) {
+            emit(pending, gapStart + context, output);
+            drop(pending, gapEnd - context);
+            if (gapStart == end) return;
+
+            end -= gapEnd - context;
+        }
+
+        if (end > windowSize) {
+            // The open hunk is too long to hold, emit up to its last change and carry the equal lines after it.
+            emit(pending, end, output);
+            drop(pending, end);
+        }
+    }
+
+    private void emit(Patch pending, int length, Consumer<Patch> output) {
+        Patch patch = new Patch();
+        patch.diffs = new ArrayList<>(pending.diffs.subList(0, length));
+        patch.start1 = pending.start1;
+        patch.start2 = pending.start2;
+        patch.recalculateLength();
+        patch.trim(context);
+        for (Patch p : patch.split(context)) {
+            output.accept(p);
+        }
+    }
+
+    private static void drop(Patch pending, int count) {
+        List<Diff> dropped = pending.diffs.subList(0, count);
+        for (Diff diff : dropped) {
+            if (diff.op != Operation.INSERT) pending.start1++;
+            if (diff.op != Operation.DELETE) pending.start2++;
+        }
+        dropped.clear();
+    }
+
+    // The number of diffs to keep, up to and including the last anchor. Lines near the end of a window
+    // may match lines not yet read, so anchors in the first half of both windows are preferred. Anchors
+    // before half of that are passed over, so every window advances by at least a quarter of its size,
+    // rather than a single line when the only anchor in the first half is at its start.
+    private int cutPoint(List<Diff> diffs, List<String> window1, List<String> window2) {
+        int half = windowSize / 2;
+        int n1 = 0;
+        int n2 = 0;
+        int halfCut = 0;
+        for (Diff diff : diffs) {
+            if (diff.op != Operation.INSERT) n1++;
+            if (diff.op != Operation.DELETE) n2++;
+            if (n1 > half || n2 > half) break;
+
+            halfCut++;
+        }
+
+        Object2IntOpenHashMap<String> counts1 = lineCounts(window1);
+        Object2IntOpenHashMap<String> counts2 = lineCounts(window2);
+        int anchor = -1;
+        for (int i = Math.max(1, halfCut / 2) - 1; i < diffs.size(); i++) {
+            if (i >= halfCut && anchor >= 0) break;
+
+            Diff diff = diffs.get(i);
+            if (diff.op == Operation.EQUAL && counts1.getInt(diff.text) == 1 && counts2.getInt(diff.text) == 1) {
+                anchor = i;
+            }
+        }
+        return anchor >= 0 ? anchor + 1 : halfCut;
+    }
+
+    /**
+     * @return If the {@link Differ} of any window in the last diff exceeded its work budget, see {@link Differ#setWorkBudget(long)}.
+     */
+    public boolean isBudgetExceeded() {
+        return budgetExceeded;
+    }
+
+    private static Object2IntOpenHashMap<String> lineCounts(List<String> lines) {
+        Object2IntOpenHashMap<String> counts = new Object2IntOpenHashMap<>(lines.size());
+        for (String line : lines) {
+            counts.addTo(line, 1);
+        }
+        return counts;
+    }
+}
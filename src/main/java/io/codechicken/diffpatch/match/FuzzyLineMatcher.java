@@ -1,12 +1,18 @@
 package io.codechicken.diffpatch.match;
 
 import io.codechicken.diffpatch.util.LineRange;
-import org.apache.commons.lang3.tuple.MutablePair;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.covers1624.quack.annotation.ReplaceWith;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class FuzzyLineMatcher {
 
@@ -14,27 +20,93 @@ public class FuzzyLineMatcher {
 
     public int maxMatchOffset = MatchMatrix.DEFAULT_MAX_OFFSET;
     public float minMatchScore = DEFAULT_MIN_MATCH_SCORE;
+    // executor to match unmatched ranges on, null to match sequentially
+    public @Nullable Executor executor;
+    // budget charged for the lines compared in each unmatched range, null for no limit
+    public @Nullable WorkBudget budget;
+    // unmatched ranges with more lines on one side times the other are left unmatched, 0 for no limit
+    public long maxRangeArea;
+
+    public void matchLinesByWords(int[] matches, List<int[]> wmLines1, List<int[]> wmLines2) {
+        matchLinesByWords(matches, wmLines1, null, wmLines2, null);
+    }
+
+    /**
+     * Fuzzy match the lines in each unmatched range.
+     * <p>
+     * Only lines inside unmatched ranges are accessed, allowing lazily computed word mode lines.
+     * <p>
+     * If an {@link #executor} is set, ranges are matched concurrently, largest first. Every line of
+     * each range is accessed on the calling thread beforehand, so lazily computed lines are never
+     * converted concurrently, whether or not signatures are supplied.
+     * <p>
+     * If a {@link #budget} is set, the cost of every range is charged before any is matched,
+     * so {@code matches} is left untouched when it is exceeded.
+     *
+     * @param matches  The line matches, updated with any fuzzy matched lines.
+     * @param wmLines1 The word mode lines of the first file.
+     * @param sigs1    The signatures of wmLines1, or {@code null} to compute them for the unmatched ranges.
+     * @param wmLines2 The word mode lines of the second file.
+     * @param sigs2    The signatures of wmLines2, or {@code null} to compute them for the unmatched ranges.
+     */
+    public void matchLinesByWords(int[] matches, List<int[]> wmLines1, @Nullable LongList sigs1, List<int[]> wmLines2, @Nullable LongList sigs2) {
+        List<Pair<LineRange, LineRange>> ranges = LineMatching.unmatchedRanges(matches, wmLines2.size());
+        if (maxRangeArea > 0) {
+            ranges.removeIf(e -> (long) e.getLeft().getLength() * e.getRight().getLength() > maxRangeArea);
+        }
+        if (budget != null) {
+            long cost = 0;
+            for (Pair<LineRange, LineRange> entry : ranges) {
+                cost += (long) entry.getLeft().getLength() * entry.getRight().getLength();
+            }
+            budget.spend(cost);
+        }
 
-    public void matchLinesByWords(int[] matches, List<String> wmLines1, List<String> wmLines2) {
-        for (Pair<LineRange, LineRange> entry : LineMatching.unmatchedRanges(matches, wmLines2.size())) {
+        List<RangeMatch> rangeMatches = new ArrayList<>();
+        for (Pair<LineRange, LineRange> entry : ranges) {
             LineRange range1 = entry.getLeft();
             LineRange range2 = entry.getRight();
             if (range1.getLength() == 0 || range2.getLength() == 0) {
                 continue;
             }
 
-            int[] match = match(wmLines1.subList(range1.getStart(), range1.getEnd()), wmLines2.subList(range2.getStart(), range2.getEnd()));
-            for (int i = 0; i < match.length; i++) {
-                if (match[i] >= 0) {
-                    matches[range1.getStart() + i] = range2.getStart() + match[i];
-                }
+            List<int[]> pattern = wmLines1.subList(range1.getStart(), range1.getEnd());
+            List<int[]> search = wmLines2.subList(range2.getStart(), range2.getEnd());
+            rangeMatches.add(new RangeMatch(
+                    range1.getStart(), pattern, sigs1 != null ? sigs1.subList(range1.getStart(), range1.getEnd()) : signatures(pattern),
+                    range2.getStart(), search, sigs2 != null ? sigs2.subList(range2.getStart(), range2.getEnd()) : signatures(search)
+            ));
+        }
+
+        if (executor == null || rangeMatches.size() < 2) {
+            for (RangeMatch rangeMatch : rangeMatches) {
+                rangeMatch.run(matches);
             }
+            return;
         }
+
+        // Signatures may have been supplied, so convert any lazily computed lines here rather than on the workers.
+        for (RangeMatch rangeMatch : rangeMatches) {
+            rangeMatch.touch();
+        }
+
+        // Each range writes a disjoint slice of matches, start the most expensive first so they don't hold up the rest.
+        rangeMatches.sort(Comparator.comparingLong(RangeMatch::cost).reversed());
+        CompletableFuture<?>[] futures = new CompletableFuture[rangeMatches.size()];
+        for (int i = 0; i < futures.length; i++) {
+            RangeMatch rangeMatch = rangeMatches.get(i);
+            futures[i] = CompletableFuture.runAsync(() -> rangeMatch.run(matches), executor);
+        }
+        CompletableFuture.allOf(futures).join();
     }
 
-    public int[] match(List<String> pattern, List<String> search) {
+    public int[] match(List<int[]> pattern, List<int[]> search) {
+        return match(pattern, signatures(pattern), search, signatures(search));
+    }
+
+    public int[] match(List<int[]> pattern, LongList patternSigs, List<int[]> search, LongList searchSigs) {
         if (search.size() < pattern.size()) {
-            int[] rMatch = match(search, pattern);
+            int[] rMatch = match(search, searchSigs, pattern, patternSigs);
             int[] nMatch = new int[pattern.size()];
             Arrays.fill(nMatch, -1);
 
@@ -54,13 +126,9 @@ public class FuzzyLineMatcher {
         float bestScore = minMatchScore;
         int[] bestMatch = null;
 
-        MatchMatrix mm = new MatchMatrix(pattern, search, maxMatchOffset, null);
-        for (int i = mm.workingRange.getFirst(); ; i++) {
-            Pair<Boolean, Float> pair = mm.match(i);
-            if (!pair.getLeft()) {
-                break;
-            }
-            float score = pair.getRight();
+        MatchMatrix mm = new MatchMatrix(pattern, patternSigs, search, searchSigs, maxMatchOffset, null);
+        for (int i = mm.workingRange.getFirst(); mm.hasMatch(i); i++) {
+            float score = mm.matchScore(i);
             if (score > bestScore) {
                 bestScore = score;
                 bestMatch = mm.path();
@@ -76,37 +144,341 @@ public class FuzzyLineMatcher {
         return bestMatch;
     }
 
-    // assumes the lines are in word to char mode
+    // assumes the lines are in word to token mode
     // return 0.0 poor match to 1.0 perfect match
     // uses LevenshtienDistance. A distance with half the maximum number of errors is considered a 0.0 scored match
-    public static float matchLines(String s, String t) {
-        int d = levenshteinDistance(s, t);
+    public static float matchLines(int[] s, int[] t) {
+        int maxLen = Math.max(s.length, t.length);
+        // distances of half the longer line or more all score 0, no need to compute them exactly
+        int d = levenshteinDistance(s, t, (maxLen - 1) / 2);
         if (d == 0) {
             return 1f;//perfect match
         }
 
-        float max = Math.max(s.length(), t.length()) / 2f;
+        float max = maxLen / 2f;
         return Math.max(0f, 1f - d / max);
     }
 
+    /**
+     * Score two lines as per {@link #matchLines(int[], int[])}, first checking their
+     * {@link #signature signatures} to skip pairs which cannot score above 0.
+     */
+    public static float matchLines(int[] s, long sigS, int[] t, long sigT) {
+        int maxLen = Math.max(s.length, t.length);
+        if (distanceLowerBound(s, sigS, t, sigT) > (maxLen - 1) / 2) {
+            return 0f;
+        }
+        return matchLines(s, t);
+    }
+
+    /**
+     * Compute the signature of a word mode line.
+     * <p>
+     * The signature is a 64-bit bloom filter of the line's tokens, see {@link #distanceLowerBound}.
+     *
+     * @param line The line, in word to token mode.
+     * @return The signature.
+     */
+    public static long signature(int[] line) {
+        long sig = 0;
+        for (int token : line) {
+            sig |= 1L << ((token * 0x9E3779B9) >>> 26);
+        }
+        return sig;
+    }
+
+    public static LongList signatures(List<int[]> lines) {
+        LongArrayList sigs = new LongArrayList(lines.size());
+        for (int[] line : lines) {
+            sigs.add(signature(line));
+        }
+        return sigs;
+    }
+
+    // A cheap lower bound on the Levenshtein distance of two lines, from their lengths and signatures.
+    // Each bloom bit set for only one line needs at least one token of that line to be edited, and an edit changes at most one token on each side.
+    public static int distanceLowerBound(int[] s, long sigS, int[] t, long sigT) {
+        int bound = Math.abs(s.length - t.length);
+        bound = Math.max(bound, Long.bitCount(sigS & ~sigT));
+        return Math.max(bound, Long.bitCount(sigT & ~sigS));
+    }
+
+    public static int levenshteinDistance(int[] s, int[] t) {
+        return levenshteinDistance(s, t, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Computes the Levenshtein distance between two lines, giving up once it is known to exceed {@code maxDistance}.
+     *
+     * @param s           The first line, in word to token mode.
+     * @param t           The second line, in word to token mode.
+     * @param maxDistance The maximum distance of interest.
+     * @return The distance, or {@code maxDistance + 1} if the distance is greater than {@code maxDistance}.
+     */
+    public static int levenshteinDistance(int[] s, int[] t, int maxDistance) {
+        // degenerate cases
+        if (Arrays.equals(s, t)) {
+            return 0;
+        }
+        if (maxDistance < Integer.MAX_VALUE && Math.abs(s.length - t.length) > maxDistance) {
+            return maxDistance + 1; // at least one edit per extra token
+        }
+        if (s.length == 0) {
+            return t.length;
+        }
+        if (t.length == 0) {
+            return s.length;
+        }
+
+        // distance is symmetric, use the shorter line as the pattern
+        if (s.length > t.length) {
+            int[] tmp = s;
+            s = t;
+            t = tmp;
+        }
+
+        Scratch scratch = SCRATCH.get();
+        // for long lines, a band narrower than a word beats the blocked bit-parallel kernel
+        if (s.length > 64 && maxDistance < 32) {
+            return bandedDistance(scratch, s, t, maxDistance);
+        }
+
+        scratch.build(s);
+        if (s.length <= 64) {
+            return bitParallelDistance(scratch, s.length, t, maxDistance);
+        }
+        return blockedBitParallelDistance(scratch, s.length, t, maxDistance);
+    }
+
+    // Myers' bit-parallel edit distance, as formulated by Hyyrö, for patterns of at most 64 tokens.
+    // Each bit of the pv/mv vectors holds the vertical delta (+1/-1) between consecutive rows of a DP column.
+    // See: https://doi.org/10.1145/316542.316550
+    private static int bitParallelDistance(Scratch scratch, int m, int[] t, int maxDistance) {
+        long pv = -1L;
+        long mv = 0L;
+        long last = 1L << (m - 1);
+        int score = m;
+        long[] peqs = scratch.peqs;
+        for (int j = 0; j < t.length; j++) {
+            int slot = scratch.slot(t[j]);
+            long eq = slot < 0 ? 0L : peqs[slot];
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                score++;
+            } else if ((mh & last) != 0) {
+                score--;
+            }
+            // the top row of the matrix increases by 1 each column
+            ph = (ph << 1) | 1L;
+            mh <<= 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+
+            // each remaining column can reduce the score by at most 1
+            if (score - (t.length - j - 1) > maxDistance) {
+                return maxDistance + 1;
+            }
+        }
+        return score;
+    }
+
+    // Blocked variant of bitParallelDistance, for patterns longer than 64 tokens.
+    // The pattern is split into 64 row blocks, horizontal deltas are carried from each block to the one below.
+    private static int blockedBitParallelDistance(Scratch scratch, int m, int[] t, int maxDistance) {
+        int blocks = (m + 63) >>> 6;
+        long[] pvs = scratch.pv;
+        long[] mvs = scratch.mv;
+        Arrays.fill(pvs, 0, blocks, -1L);
+        Arrays.fill(mvs, 0, blocks, 0L);
+        long lastBlockBit = 1L << ((m - 1) & 63);
+        long[] peqs = scratch.peqs;
+        int score = m;
+        for (int j = 0; j < t.length; j++) {
+            int slot = scratch.slot(t[j]);
+            int hin = 1; // the top row of the matrix increases by 1 each column
+            for (int b = 0; b < blocks; b++) {
+                long pv = pvs[b];
+                long mv = mvs[b];
+                long eq = slot < 0 ? 0L : peqs[slot * blocks + b];
+                long xv = eq | mv;
+                if (hin < 0) {
+                    eq |= 1L;
+                }
+                long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+
+                long last = b == blocks - 1 ? lastBlockBit : 1L << 63;
+                int hout = (ph & last) != 0 ? 1 : (mh & last) != 0 ? -1 : 0;
+
+                ph <<= 1;
+                mh <<= 1;
+                if (hin < 0) {
+                    mh |= 1L;
+                } else if (hin > 0) {
+                    ph |= 1L;
+                }
+                pvs[b] = mh | ~(xv | ph);
+                mvs[b] = ph & xv;
+                hin = hout;
+            }
+            score += hin;
+
+            // each remaining column can reduce the score by at most 1
+            if (score - (t.length - j - 1) > maxDistance) {
+                return maxDistance + 1;
+            }
+        }
+        return score;
+    }
+
+    // Ukkonen's banded DP, only cells within maxDistance of the diagonal can lie on a path within maxDistance.
+    // Assumes s is no longer than t, and that the length difference is within maxDistance.
+    private static int bandedDistance(Scratch scratch, int[] s, int[] t, int maxDistance) {
+        int n = t.length;
+        int inf = maxDistance + 1;
+        if (scratch.row0.length < n + 1) {
+            scratch.row0 = new int[n + 1];
+            scratch.row1 = new int[n + 1];
+        }
+        int[] v0 = scratch.row0;
+        int[] v1 = scratch.row1;
+
+        for (int j = 0; j <= n; j++) {
+            v0[j] = Math.min(j, inf);
+        }
+
+        for (int i = 1; i <= s.length; i++) {
+            int lo = Math.max(1, i - maxDistance);
+            int hi = Math.min(n, i + maxDistance);
+
+            // cell left of the band, either the first column or outside the band
+            v1[lo - 1] = lo == 1 ? Math.min(i, inf) : inf;
+            int rowMin = v1[lo - 1];
+            int c = s[i - 1];
+            for (int j = lo; j <= hi; j++) {
+                int del = v0[j] + 1;
+                int ins = v1[j - 1] + 1;
+                int subs = v0[j - 1] + (c == t[j - 1] ? 0 : 1);
+                int v = Math.min(inf, Math.min(del, Math.min(ins, subs)));
+                v1[j] = v;
+                rowMin = Math.min(rowMin, v);
+            }
+            // cell right of the band, read as the deletion source by the next row
+            if (hi < n) {
+                v1[hi + 1] = inf;
+            }
+
+            if (rowMin > maxDistance) {
+                return inf; // no path continues within the bound
+            }
+
+            int[] tmp = v0;
+            v0 = v1;
+            v1 = tmp;
+        }
+
+        return v0[n];
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    // Per thread working space for the edit distance.
+    // Maps each distinct pattern token to its match bit vector (peq), one word per 64 token block.
+    private static class Scratch {
+
+        // open addressing table of pattern tokens, a slot is in use if its stamp is current
+        private int[] keys = new int[128];
+        private int[] stamps = new int[128];
+        private int stamp;
+        private int mask = 127;
+        private int blocks;
+        // slot * blocks + block -> bits set for each row of the block matching the token
+        private long[] peqs = new long[128];
+
+        private long[] pv = new long[0];
+        private long[] mv = new long[0];
+
+        // rows for the banded DP
+        private int[] row0 = new int[0];
+        private int[] row1 = new int[0];
+
+        private void build(int[] pattern) {
+            blocks = (pattern.length + 63) >>> 6;
+            int cap = Integer.highestOneBit(pattern.length * 2 - 1) << 1;
+            if (cap > keys.length) {
+                keys = new int[cap];
+                stamps = new int[cap];
+                stamp = 0;
+            }
+            if (keys.length * blocks > peqs.length) {
+                peqs = new long[keys.length * blocks];
+            }
+            if (pv.length < blocks) {
+                pv = new long[blocks];
+                mv = new long[blocks];
+            }
+            mask = keys.length - 1;
+            if (++stamp == 0) { // wrapped, clear all slots
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+
+            for (int i = 0; i < pattern.length; i++) {
+                int token = pattern[i];
+                int slot = mix(token) & mask;
+                while (stamps[slot] == stamp && keys[slot] != token) {
+                    slot = (slot + 1) & mask;
+                }
+                if (stamps[slot] != stamp) {
+                    stamps[slot] = stamp;
+                    keys[slot] = token;
+                    Arrays.fill(peqs, slot * blocks, slot * blocks + blocks, 0L);
+                }
+                peqs[slot * blocks + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+
+        // the slot of the given token, or -1 if it is not in the pattern
+        private int slot(int token) {
+            int slot = mix(token) & mask;
+            while (stamps[slot] == stamp) {
+                if (keys[slot] == token) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
     // https://en.wikipedia.org/wiki/Levenshtein_distance
-    public static int levenshteinDistance(String s, String t) {
+    // reference implementation of levenshteinDistance, using the textbook two row dynamic programming approach
+    public static int levenshteinDistanceDP(int[] s, int[] t) {
         // degenerate cases
-        if (s.equals(t)) {
+        if (Arrays.equals(s, t)) {
             return 0;
         }
-        if (s.isEmpty()) {
-            return t.length();
+        if (s.length == 0) {
+            return t.length;
         }
-        if (t.isEmpty()) {
-            return s.length();
+        if (t.length == 0) {
+            return s.length;
         }
 
         // create two work vectors of integer distances
         // previous
-        int[] v0 = new int[t.length() + 1];
+        int[] v0 = new int[t.length + 1];
         // current
-        int[] v1 = new int[t.length() + 1];
+        int[] v1 = new int[t.length + 1];
 
         // initialize v1 (the current row of distances)
         // this row is A[0][i]: edit distance for an empty s
@@ -115,7 +487,7 @@ public class FuzzyLineMatcher {
             v1[i] = i;
         }
 
-        for (int i = 0; i < s.length(); i++) {
+        for (int i = 0; i < s.length; i++) {
             // swap v1 to v0, reuse old v0 as new v1
             int[] tmp = v0;
             v0 = v1;
@@ -128,63 +500,165 @@ public class FuzzyLineMatcher {
             v1[0] = i + 1;
 
             // use formula to fill in the rest of the row
-            for (int j = 0; j < t.length(); j++) {
+            for (int j = 0; j < t.length; j++) {
                 int del = v0[j + 1] + 1;
                 int ins = v1[j] + 1;
-                int subs = v0[j] + (s.charAt(i) == t.charAt(j) ? 0 : 1);
+                int subs = v0[j] + (s[i] == t[j] ? 0 : 1);
                 v1[j + 1] = Math.min(del, Math.min(ins, subs));
             }
         }
 
-        return v1[t.length()];
+        return v1[t.length];
+    }
+
+    // an unmatched range of lines, to be fuzzy matched
+    private class RangeMatch {
+
+        private final int start1;
+        private final List<int[]> pattern;
+        private final LongList patternSigs;
+        private final int start2;
+        private final List<int[]> search;
+        private final LongList searchSigs;
+
+        private RangeMatch(int start1, List<int[]> pattern, LongList patternSigs, int start2, List<int[]> search, LongList searchSigs) {
+            this.start1 = start1;
+            this.pattern = pattern;
+            this.patternSigs = patternSigs;
+            this.start2 = start2;
+            this.search = search;
+            this.searchSigs = searchSigs;
+        }
+
+        private long cost() {
+            return (long) pattern.size() * search.size();
+        }
+
+        private void touch() {
+            for (int i = 0; i < pattern.size(); i++) {
+                pattern.get(i);
+            }
+            for (int i = 0; i < search.size(); i++) {
+                search.get(i);
+            }
+        }
+
+        private void run(int[] matches) {
+            int[] match = match(pattern, patternSigs, search, searchSigs);
+            for (int i = 0; i < match.length; i++) {
+                if (match[i] >= 0) {
+                    matches[start1 + i] = start2 + match[i];
+                }
+            }
+        }
     }
 
     public static class MatchMatrix {
 
         public static final int DEFAULT_MAX_OFFSET = 5;
 
-        private final int patternLength;
-        private final LineRange range;
+        private final List<int[]> search;
+        private final LongList searchSigs;
         // maximum offset between line matches in a run
         private final int maxOffset;
 
-        public LineRange workingRange;
+        private List<int[]> pattern;
+        private LongList patternSigs;
+        private int patternLength;
+        private int rangeStart;
+        private int rangeEnd;
+
+        public LineRange workingRange = new LineRange();
 
         // location of first pattern line in search lines. Starting offset for a match
         private int pos = Integer.MIN_VALUE;
-        // consecutive matches for pattern offset from loc by up to maxOffset
-        // first entry is for pattern starting at loc in text, last entry is offset +maxOffset
-        private final StraightMatch[] matches;
+        // consecutive matches for pattern offset from loc by up to maxOffset, stored as rows of patternLength nodes
+        // rows form a ring buffer, the first row is for pattern starting at pos in text, the last is offset +maxOffset
+        private int firstRow;
+        // start index of each row in the node arrays, by offset
+        private final int[] rowStart;
+        // score of each node (1.0 = perfect, 0.0 = no match)
+        private float[] scores = new float[0];
+        // sum of the match scores in the best path up to each node
+        private float[] sums = new float[0];
+        // offset index of the next node in the path
+        private int[] next = new int[0];
         // offset index of first node in best path
         private int firstNode;
 
-        public MatchMatrix(List<String> pattern, List<String> search) {
+        public MatchMatrix(List<int[]> pattern, List<int[]> search) {
             this(pattern, search, DEFAULT_MAX_OFFSET, null);
         }
 
-        public MatchMatrix(List<String> pattern, List<String> search, int maxOffset, @Nullable LineRange range) {
-            if (range == null) {
-                range = LineRange.fromStartLen(0, search.size());
-            }
-            patternLength = pattern.size();
-            this.range = range;
+        public MatchMatrix(List<int[]> pattern, List<int[]> search, int maxOffset, @Nullable LineRange range) {
+            this(pattern, signatures(pattern), search, signatures(search), maxOffset, range);
+        }
+
+        public MatchMatrix(List<int[]> pattern, LongList patternSigs, List<int[]> search, LongList searchSigs, int maxOffset, @Nullable LineRange range) {
+            this(search, searchSigs, maxOffset);
+            reset(pattern, patternSigs, range);
+        }
+
+        /**
+         * Create a MatchMatrix over the given search lines, with no pattern.
+         * <p>
+         * {@link #reset} must be called before matching.
+         *
+         * @param search     The lines to search.
+         * @param searchSigs The signatures of the search lines.
+         * @param maxOffset  The maximum offset between line matches in a run.
+         */
+        public MatchMatrix(List<int[]> search, LongList searchSigs, int maxOffset) {
+            this.search = search;
+            this.searchSigs = searchSigs;
             this.maxOffset = maxOffset;
-            workingRange = LineRange.fromFirstLast(range.getStart() - maxOffset, range.getEnd() - patternLength);
+            rowStart = new int[maxOffset + 1];
+        }
 
-            matches = new StraightMatch[maxOffset + 1];
-            for (int i = 0; i <= maxOffset; i++) {
-                matches[i] = new StraightMatch(pattern, search, range);
+        /**
+         * Reuse this MatchMatrix for a new pattern and range of the search lines.
+         *
+         * @param pattern     The pattern lines.
+         * @param patternSigs The signatures of the pattern lines.
+         * @param range       The range of search lines to match within, {@code null} for all lines.
+         */
+        public void reset(List<int[]> pattern, LongList patternSigs, @Nullable LineRange range) {
+            this.pattern = pattern;
+            this.patternSigs = patternSigs;
+            patternLength = pattern.size();
+            rangeStart = range != null ? range.getStart() : 0;
+            rangeEnd = range != null ? range.getEnd() : search.size();
+            workingRange.setFirst(rangeStart - maxOffset);
+            workingRange.setLast(rangeEnd - patternLength);
+
+            int nodes = (maxOffset + 1) * patternLength;
+            if (scores.length < nodes) {
+                scores = new float[nodes];
+                sums = new float[nodes];
+                next = new int[nodes];
             }
+            pos = Integer.MIN_VALUE;
+            firstRow = 0;
+            updateRowStarts();
         }
 
-        public Pair<Boolean, Float> match(int loc) {
-            MutablePair<Boolean, Float> ret = new MutablePair<>();
-            ret.setRight(0f);
-            if (!workingRange.contains(loc)) {
-                ret.setLeft(false);
-                return ret;
-            }
+        /**
+         * @param loc The location of the first pattern line in the search lines.
+         * @return If the pattern can be matched at this location.
+         */
+        public boolean hasMatch(int loc) {
+            return workingRange.contains(loc);
+        }
 
+        /**
+         * Match the pattern at the given location, stepping from the previous location where possible.
+         * <p>
+         * The location must satisfy {@link #hasMatch(int)}.
+         *
+         * @param loc The location of the first pattern line in the search lines.
+         * @return The score of the best path.
+         */
+        public float matchScore(int loc) {
             if (loc == pos + 1) {
                 stepForward();
             } else if (loc == pos - 1) {
@@ -193,41 +667,64 @@ public class FuzzyLineMatcher {
                 init(loc);
             }
 
-            ret.setRight(recalculate());
-            ret.setLeft(true);
-            return ret;
+            return recalculate();
+        }
+
+        @Deprecated
+        @ReplaceWith ("hasMatch(loc) and matchScore(loc)")
+        public Pair<Boolean, Float> match(int loc) {
+            if (!hasMatch(loc)) {
+                return Pair.of(false, 0f);
+            }
+            return Pair.of(true, matchScore(loc));
         }
 
         private void init(int loc) {
             pos = loc;
 
             for (int i = 0; i <= maxOffset; i++) {
-                matches[i].update(loc + i);
+                update(rowStart[i], loc + i);
             }
         }
 
         private void stepForward() {
             pos++;
 
-            StraightMatch reuse = matches[0];
-            for (int i = 1; i <= maxOffset; i++) {
-                matches[i - 1] = matches[i];
-            }
-
-            matches[maxOffset] = reuse;
-            reuse.update(pos + maxOffset);
+            // the first row is reused as the last
+            firstRow = firstRow == maxOffset ? 0 : firstRow + 1;
+            updateRowStarts();
+            update(rowStart[maxOffset], pos + maxOffset);
         }
 
         private void stepBackward() {
             pos--;
 
-            StraightMatch reuse = matches[maxOffset];
-            for (int i = maxOffset; i > 0; i--) {
-                matches[i] = matches[i - 1];
+            // the last row is reused as the first
+            firstRow = firstRow == 0 ? maxOffset : firstRow - 1;
+            updateRowStarts();
+            update(rowStart[0], pos);
+        }
+
+        private void updateRowStarts() {
+            for (int j = 0; j <= maxOffset; j++) {
+                int row = firstRow + j;
+                if (row > maxOffset) {
+                    row -= maxOffset + 1;
+                }
+                rowStart[j] = row * patternLength;
             }
+        }
 
-            matches[0] = reuse;
-            reuse.update(pos);
+        // scores a row of consecutive pattern lines against the search text starting at line offset loc
+        private void update(int start, int loc) {
+            for (int i = 0; i < patternLength; i++) {
+                int l = i + loc;
+                if (l < rangeStart || l >= rangeEnd) {
+                    scores[start + i] = 0;
+                } else {
+                    scores[start + i] = matchLines(pattern.get(i), patternSigs.getLong(i), search.get(l), searchSigs.getLong(l));
+                }
+            }
         }
 
         // calculates the best path through the match matrix
@@ -235,16 +732,16 @@ public class FuzzyLineMatcher {
         private float recalculate() {
             // tail nodes have sum = score
             for (int j = 0; j <= maxOffset; j++) {
-                MatchNode node = matches[j].nodes[patternLength - 1];
-                node.sum = node.score;
-                node.next = -1;//no next
+                int node = rowStart[j] + patternLength - 1;
+                sums[node] = scores[node];
+                next[node] = -1;//no next
             }
 
             // calculate best paths for all nodes excluding head
             for (int i = patternLength - 2; i >= 0; i--) {
                 for (int j = 0; j <= maxOffset; j++) {
                     // for each node
-                    MatchNode node = matches[j].nodes[i];
+                    int node = rowStart[j] + i;
                     int maxk = -1;
                     float maxsum = 0;
                     for (int k = 0; k <= maxOffset; k++) {
@@ -253,7 +750,7 @@ public class FuzzyLineMatcher {
                             continue;
                         }
 
-                        float sum = matches[k].nodes[l].sum;
+                        float sum = sums[rowStart[k] + l];
                         if (k > j) {
                             sum -= 0.5f * (k - j); // penalty for skipping lines in search text
                         }
@@ -264,17 +761,17 @@ public class FuzzyLineMatcher {
                         }
                     }
 
-                    node.sum = maxsum + node.score;
-                    node.next = maxk;
+                    sums[node] = maxsum + scores[node];
+                    next[node] = maxk;
                 }
             }
 
             // find starting node
             {
                 firstNode = 0;
-                float maxsum = matches[0].nodes[0].sum;
+                float maxsum = sums[rowStart[0]];
                 for (int k = 1; k <= maxOffset; k++) {
-                    float sum = matches[k].nodes[0].sum;
+                    float sum = sums[rowStart[k]];
                     if (sum > maxsum) {
                         firstNode = k;
                         maxsum = sum;
@@ -283,29 +780,29 @@ public class FuzzyLineMatcher {
             }
 
             // return best path value
-            return matches[firstNode].nodes[0].sum / patternLength;
+            return sums[rowStart[firstNode]] / patternLength;
         }
 
         private int locInRange(int loc) {
-            return range.contains(loc) ? loc : -1;
+            return loc >= rangeStart && loc < rangeEnd ? loc : -1;
         }
 
         public int[] path() {
             int[] path = new int[patternLength];
 
             int offset = firstNode; // offset of current node
-            MatchNode node = matches[firstNode].nodes[0];
+            int node = rowStart[firstNode];
             path[0] = locInRange(pos + offset);
 
             int i = 0; // index in pattern of current node
-            while (node.next >= 0) {
-                int delta = offsetsToPatternDistance(offset, node.next);
+            while (next[node] >= 0) {
+                int delta = offsetsToPatternDistance(offset, next[node]);
                 while (delta-- > 1) { // skipped pattern lines
                     path[++i] = -1;
                 }
 
-                offset = node.next;
-                node = matches[offset].nodes[++i];
+                offset = next[node];
+                node = rowStart[offset] + ++i;
                 path[i] = locInRange(pos + i + offset);
             }
 
@@ -321,11 +818,10 @@ public class FuzzyLineMatcher {
             StringBuilder sb = new StringBuilder();
             for (int j = 0; j <= maxOffset; j++) {
                 sb.append(j).append(':');
-                StraightMatch line = matches[j];
                 for (int i = 0; i < patternLength; i++) {
                     boolean inPath = path[i] > 0 && path[i] == pos + i + j;
                     sb.append(inPath ? '[' : ' ');
-                    int score = Math.round(line.nodes[i].score * 100);
+                    int score = Math.round(scores[rowStart[j] + i] * 100);
                     sb.append(score == 100 ? "%%" : score);
                     sb.append(inPath ? ']' : ' ');
                 }
@@ -337,49 +833,5 @@ public class FuzzyLineMatcher {
         private static int offsetsToPatternDistance(int i, int j) {
             return j >= i ? 1 : 1 + i - j;
         }
-
-        // contains match entries for consecutive characters of a pattern and the search text starting at line offset loc
-        private static class StraightMatch {
-
-            private final int patternLength;
-            private final List<String> pattern;
-            private final List<String> search;
-            private final LineRange range;
-
-            public final MatchNode[] nodes;
-
-            public StraightMatch(List<String> pattern, List<String> search, LineRange range) {
-                patternLength = pattern.size();
-                this.pattern = pattern;
-                this.search = search;
-                this.range = range;
-
-                nodes = new MatchNode[patternLength];
-                for (int i = 0; i < patternLength; i++) {
-                    nodes[i] = new MatchNode();
-                }
-            }
-
-            public void update(int loc) {
-                for (int i = 0; i < patternLength; i++) {
-                    int l = i + loc;
-                    if (l < range.getStart() || l >= range.getEnd()) {
-                        nodes[i].score = 0;
-                    } else {
-                        nodes[i].score = matchLines(pattern.get(i), search.get(l));
-                    }
-                }
-            }
-        }
-
-        private static class MatchNode {
-
-            // score of this match (1.0 = perfect, 0.0 = no match)
-            public float score;
-            // sum of the match scores in the best path up to this node
-            public float sum;
-            // offset index of the next node in the path
-            public int next;
-        }
     }
 }
@@ -0,0 +1,199 @@
+package io.codechicken.diffpatch.match;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Histogram matching, as implemented by git and JGit.
+ * <p>
+ * An extension of {@link PatienceMatch}, instead of only anchoring on lines which are
+ * unique to both sides, the longest common run containing the lowest occurrence
+ * line is used as an anchor. Lines occurring more than {@code maxChainLength} times
+ * are never used as anchors, regions with no usable anchors fall back to {@link MyersMatch}.
+ */
+public class HistogramMatch {
+
+    public static final int DEFAULT_MAX_CHAIN_LENGTH = 64;
+
+    private final int maxChainLength;
+
+    //working fields for matching
+    private int[] tokens1;
+    private int[] tokens2;
+    private int[] matches;
+
+    // token -> number of occurrences in the current range of tokens1
+    private int[] counts;
+    // token -> first index of the token in the current range of tokens1
+    private int[] heads;
+    // index -> next index of the same token in the current range of tokens1
+    private int[] next;
+
+    // ranges yet to be matched, 4 ints per range
+    private final IntArrayList work = new IntArrayList();
+
+    private MyersMatch fallback;
+
+    private @Nullable WorkBudget budget;
+
+    public HistogramMatch() {
+        this(DEFAULT_MAX_CHAIN_LENGTH);
+    }
+
+    public HistogramMatch(int maxChainLength) {
+        this.maxChainLength = maxChainLength;
+    }
+
+    /**
+     * Set the budget charged for each range matched, {@code null} for no limit.
+     *
+     * @param budget The budget.
+     * @return The same HistogramMatch.
+     */
+    public HistogramMatch setBudget(@Nullable WorkBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    public int[] match(int[] tokens1, int[] tokens2, int maxToken) {
+        if (counts == null || counts.length < maxToken) {
+            counts = new int[maxToken];
+            heads = new int[maxToken];
+            Arrays.fill(heads, -1);
+        }
+        if (next == null || next.length < tokens1.length) {
+            next = new int[tokens1.length];
+        }
+
+        this.tokens1 = tokens1;
+        this.tokens2 = tokens2;
+        matches = new int[tokens1.length];
+        Arrays.fill(matches, -1);
+
+        work.add(0);
+        work.add(tokens1.length);
+        work.add(0);
+        work.add(tokens2.length);
+        while (!work.isEmpty()) {
+            int size = work.size();
+            int end2 = work.removeInt(size - 1);
+            int start2 = work.removeInt(size - 2);
+            int end1 = work.removeInt(size - 3);
+            int start1 = work.removeInt(size - 4);
+            match(start1, end1, start2, end2);
+        }
+        return matches;
+    }
+
+    private void match(int start1, int end1, int start2, int end2) {
+        // step 1: match up identical starting lines
+        while (start1 < end1 && start2 < end2 && tokens1[start1] == tokens2[start2]) {
+            matches[start1++] = start2++;
+        }
+
+        // step 2: match up identical ending lines
+        while (start1 < end1 && start2 < end2 && tokens1[end1 - 1] == tokens2[end2 - 1]) {
+            matches[--end1] = --end2;
+        }
+
+        if (start1 == end1 || start2 == end2) { // no lines on a side
+            return;
+        }
+
+        if (budget != null) {
+            budget.spend(end1 - start1 + end2 - start2);
+        }
+
+        // step 3: build the histogram of tokens1
+        for (int i = end1 - 1; i >= start1; i--) {
+            int t = tokens1[i];
+            counts[t]++;
+            next[i] = heads[t];
+            heads[t] = i;
+        }
+
+        // step 4: find the longest common run, containing the lowest occurrence line
+        int bestCount = maxChainLength + 1;
+        int best1 = -1, best2 = -1, bestLen = 0;
+        boolean anyCommon = false;
+        for (int b = start2; b < end2; ) {
+            int bNext = b + 1;
+            int t = tokens2[b];
+            if (counts[t] > maxChainLength) {
+                anyCommon = true; // too common to anchor on
+            } else if (counts[t] <= bestCount) { // skip lines occurring more often than the current anchor
+                for (int a = heads[t]; a != -1; ) {
+                    int np = next[a];
+                    int as = a, bs = b, ae = a, be = b; // inclusive
+                    int rc = counts[t];
+                    while (as > start1 && bs > start2 && tokens1[as - 1] == tokens2[bs - 1]) {
+                        as--;
+                        bs--;
+                        rc = Math.min(rc, counts[tokens1[as]]);
+                    }
+                    while (ae + 1 < end1 && be + 1 < end2 && tokens1[ae + 1] == tokens2[be + 1]) {
+                        ae++;
+                        be++;
+                        rc = Math.min(rc, counts[tokens1[ae]]);
+                    }
+
+                    if (bNext <= be) {
+                        bNext = be + 1;
+                    }
+                    // prefer longer runs, or runs with lower occurrence lines
+                    if (ae - as + 1 > bestLen || rc < bestCount) {
+                        best1 = as;
+                        best2 = bs;
+                        bestLen = ae - as + 1;
+                        bestCount = rc;
+                    }
+
+                    // skip occurrences covered by this run
+                    while (np != -1 && np <= ae) {
+                        np = next[np];
+                    }
+                    a = np;
+                }
+            }
+            b = bNext;
+        }
+
+        // reset for next use
+        for (int i = start1; i < end1; i++) {
+            int t = tokens1[i];
+            counts[t] = 0;
+            heads[t] = -1;
+        }
+
+        if (best1 < 0) {
+            if (anyCommon) {
+                if (fallback == null) {
+                    fallback = new MyersMatch();
+                }
+                fallback.setBudget(budget);
+                fallback.match(tokens1, tokens2, matches, start1, end1, start2, end2);
+            }
+            return;
+        }
+
+        for (int i = 0; i < bestLen; i++) {
+            matches[best1 + i] = best2 + i;
+        }
+
+        // step 5: match either side of the anchor run
+        pushWork(best1 + bestLen, end1, best2 + bestLen, end2);
+        pushWork(start1, best1, start2, best2);
+    }
+
+    private void pushWork(int start1, int end1, int start2, int end2) {
+        if (start1 == end1 || start2 == end2) {
+            return;
+        }
+        work.add(start1);
+        work.add(end1);
+        work.add(start2);
+        work.add(end2);
+    }
+}
@@ -1,6 +1,7 @@
 package io.codechicken.diffpatch.match;
 
 import io.codechicken.diffpatch.util.Diff;
+import io.codechicken.diffpatch.util.EditScript;
 import io.codechicken.diffpatch.util.LineRange;
 import io.codechicken.diffpatch.util.Operation;
 import io.codechicken.diffpatch.util.Patch;
@@ -102,35 +103,6 @@ public class LineMatching {
     }
 
     public static List<Diff> makeDiffList(int[] matches, List<String> lines1, List<String> lines2) {
-        List<Diff> list = new ArrayList<>();
-        int l = 0;
-        int r = 0;
-        for (int i = 0; i < matches.length; i++) {
-            if (matches[i] < 0) {
-                continue;
-            }
-
-            while (l < i) {
-                list.add(new Diff(Operation.DELETE, lines1.get(l++)));
-            }
-            while (r < matches[i]) {
-                list.add(new Diff(Operation.INSERT, lines2.get(r++)));
-            }
-            if (!lines1.get(l).equals(lines2.get(r))) {
-                list.add(new Diff(Operation.DELETE, lines1.get(l)));
-                list.add(new Diff(Operation.INSERT, lines2.get(r)));
-            } else {
-                list.add(new Diff(Operation.EQUAL, lines1.get(l)));
-            }
-            l++;
-            r++;
-        }
-        while (l < lines1.size()) {
-            list.add(new Diff(Operation.DELETE, lines1.get(l++)));
-        }
-        while (r < lines2.size()) {
-            list.add(new Diff(Operation.INSERT, lines2.get(r++)));
-        }
-        return list;
+        return EditScript.fromMatches(matches, lines1, lines2).toDiffs();
     }
 }
@@ -0,0 +1,206 @@
+package io.codechicken.diffpatch.match;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Finds a longest common subsequence of two token arrays using Myers' O((N+M)D) algorithm,
+ * with the linear space 'middle snake' divide and conquer refinement.
+ * <p>
+ * Unlike {@link PatienceMatch} no unique anchor lines are required, making this suitable
+ * for inputs with many repeated lines.
+ * <p>
+ * See: <a href="http://www.xmailserver.org/diff2.pdf">An O(ND) Difference Algorithm and Its Variations</a>
+ */
+public class MyersMatch {
+
+    //working fields for matching
+    private int[] tokens1;
+    private int[] tokens2;
+    private int[] matches;
+
+    // furthest reaching forward/reverse paths, indexed by diagonal + offset
+    private int[] vf = new int[0];
+    private int[] vb = new int[0];
+
+    // output of bisect
+    private int splitX;
+    private int splitY;
+
+    private @Nullable WorkBudget budget;
+
+    /**
+     * Set the budget charged for each edit distance step, {@code null} for no limit.
+     *
+     * @param budget The budget.
+     * @return The same MyersMatch.
+     */
+    public MyersMatch setBudget(@Nullable WorkBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    public int[] match(int[] tokens1, int[] tokens2) {
+        int[] matches = new int[tokens1.length];
+        Arrays.fill(matches, -1);
+
+        match(tokens1, tokens2, matches, 0, tokens1.length, 0, tokens2.length);
+        return matches;
+    }
+
+    /**
+     * Match a sub-range of the given tokens, writing into an existing matches array.
+     * <p>
+     * Entries of {@code matches} outside {@code [start1, end1)} are not touched.
+     *
+     * @param tokens1 The tokens of the first file.
+     * @param tokens2 The tokens of the second file.
+     * @param matches The matches array, indexed by line in the first file.
+     * @param start1  The start of the range in the first file, inclusive.
+     * @param end1    The end of the range in the first file, exclusive.
+     * @param start2  The start of the range in the second file, inclusive.
+     * @param end2    The end of the range in the second file, exclusive.
+     */
+    public void match(int[] tokens1, int[] tokens2, int[] matches, int start1, int end1, int start2, int end2) {
+        this.tokens1 = tokens1;
+        this.tokens2 = tokens2;
+        this.matches = matches;
+
+        int vLength = end1 - start1 + end2 - start2 + 3;
+        if (vf.length < vLength) {
+            vf = new int[vLength];
+            vb = new int[vLength];
+        }
+
+        match(start1, end1, start2, end2);
+    }
+
+    private void match(int start1, int end1, int start2, int end2) {
+        // step 1: match up identical starting lines
+        while (start1 < end1 && start2 < end2 && tokens1[start1] == tokens2[start2]) {
+            matches[start1++] = start2++;
+        }
+
+        // step 2: match up identical ending lines
+        while (start1 < end1 && start2 < end2 && tokens1[end1 - 1] == tokens2[end2 - 1]) {
+            matches[--end1] = --end2;
+        }
+
+        if (start1 == end1 || start2 == end2) { // only inserts or deletes remain
+            return;
+        }
+
+        // step 3: split on the middle snake
+        if (!bisect(start1, end1, start2, end2)) {
+            return; // no common lines
+        }
+
+        int x = splitX;
+        int y = splitY;
+        if (x == start1 && y == start2 || x == end1 && y == end2) {
+            // Should never happen once common prefix/suffix are stripped, but guard against recursing forever.
+            return;
+        }
+
+        // step 4: recurse
+        match(start1, x, start2, y);
+        match(x, end1, y, end2);
+    }
+
+    // Finds the middle snake of the given ranges, storing the point at which to split the problem into splitX, splitY.
+    // Assumes the ranges have no common prefix or suffix.
+    private boolean bisect(int start1, int end1, int start2, int end2) {
+        int n = end1 - start1;
+        int m = end2 - start2;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int vLength = 2 * maxD + 2;
+        Arrays.fill(vf, 0, vLength, -1);
+        Arrays.fill(vb, 0, vLength, -1);
+        vf[offset + 1] = 0;
+        vb[offset + 1] = 0;
+
+        int delta = n - m;
+        // if the total number of lines is odd, the front path will collide with the reverse path
+        boolean front = (delta & 1) != 0;
+
+        // offsets for start and end of k loops, prevents mapping of space beyond the grid
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d < maxD; d++) {
+            if (budget != null) {
+                budget.spend(2 * d + 2);
+            }
+            // walk the front path one step
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || k1 != d && vf[k1Offset - 1] < vf[k1Offset + 1]) {
+                    x1 = vf[k1Offset + 1];
+                } else {
+                    x1 = vf[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && tokens1[start1 + x1] == tokens2[start2 + y1]) {
+                    x1++;
+                    y1++;
+                }
+                vf[k1Offset] = x1;
+                if (x1 > n) {
+                    k1end += 2; // ran off the right of the grid
+                } else if (y1 > m) {
+                    k1start += 2; // ran off the bottom of the grid
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < vLength && vb[k2Offset] != -1) {
+                        // mirror x2 onto top-left coordinate system
+                        int x2 = n - vb[k2Offset];
+                        if (x1 >= x2) {
+                            splitX = start1 + x1;
+                            splitY = start2 + y1;
+                            return true;
+                        }
+                    }
+                }
+            }
+
+            // walk the reverse path one step
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || k2 != d && vb[k2Offset - 1] < vb[k2Offset + 1]) {
+                    x2 = vb[k2Offset + 1];
+                } else {
+                    x2 = vb[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && tokens1[end1 - 1 - x2] == tokens2[end2 - 1 - y2]) {
+                    x2++;
+                    y2++;
+                }
+                vb[k2Offset] = x2;
+                if (x2 > n) {
+                    k2end += 2; // ran off the left of the grid
+                } else if (y2 > m) {
+                    k2start += 2; // ran off the top of the grid
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < vLength && vf[k1Offset] != -1) {
+                        int x1 = vf[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        // mirror x2 onto top-left coordinate system
+                        if (x1 >= n - x2) {
+                            splitX = start1 + x1;
+                            splitY = start2 + y1;
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
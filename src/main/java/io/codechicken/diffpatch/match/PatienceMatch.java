@@ -1,183 +1,322 @@
 package io.codechicken.diffpatch.match;
 
-import it.unimi.dsi.fastutil.ints.AbstractInt2IntMap;
-import it.unimi.dsi.fastutil.ints.Int2IntMap;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class PatienceMatch {
 
+    /**
+     * The default minimum size of a range, in lines across both sides, to be matched as a separate fork/join task.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+
+    @Nullable
+    private final ForkJoinPool pool;
+    private final int parallelThreshold;
+
     //working fields for matching
-    private String chars1;
-    private String chars2;
-    private int[] unique1;
-    private int[] unique2;
+    private int[] tokens1;
+    private int[] tokens2;
     private int[] matches;
+    private int maxToken;
 
-    private void match(int start1, int end1, int start2, int end2) {
-        // step 1: match up identical starting lines
-        while (start1 < end1 && start2 < end2 && chars1.charAt(start1) == chars2.charAt(start2)) {
-            matches[start1++] = start2++;
-        }
+    // idle workers, reused between ranges and calls
+    private final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<>();
 
-        // step 2: match up identical ending lines
-        while (start1 < end1 && start2 < end2 && chars1.charAt(end1 - 1) == chars2.charAt(end2 - 1)) {
-            matches[--end1] = --end2;
-        }
+    private @Nullable WorkBudget budget;
 
-        if (start1 == end1 || start2 == end2  // no lines on a side
-            || end1 - start1 + end2 - start2 <= 3) { // either a 1-2 or 2-1 which would've been matched by steps 1 and 2
-            return;
-        }
+    public PatienceMatch() {
+        this(null, DEFAULT_PARALLEL_THRESHOLD);
+    }
 
-        // step 3: match up common unique lines
-        boolean any = false;
-        for (Int2IntMap.Entry entry : lcsUnique(start1, end1, start2, end2)) {
-            int m1 = entry.getIntKey();
-            int m2 = entry.getIntValue();
-            matches[m1] = m2;
-            any = true;
+    /**
+     * Create a PatienceMatch which matches independent regions in parallel.
+     * <p>
+     * The regions between unique anchor lines are independent, regions of at least
+     * {@code parallelThreshold} lines are submitted as separate tasks to the given pool.
+     * The result is identical to sequential matching.
+     *
+     * @param pool              The pool to run tasks on, {@code null} to match sequentially.
+     * @param parallelThreshold The minimum size of a region, in lines across both sides, to run as a separate task.
+     */
+    public PatienceMatch(@Nullable ForkJoinPool pool, int parallelThreshold) {
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
 
-            //step 4: recurse
-            match(start1, m1, start2, m2);
+    /**
+     * Set the budget charged for each range matched, {@code null} for no limit.
+     *
+     * @param budget The budget.
+     * @return The same PatienceMatch.
+     */
+    public PatienceMatch setBudget(@Nullable WorkBudget budget) {
+        this.budget = budget;
+        return this;
+    }
 
-            start1 = m1 + 1;
-            start2 = m2 + 1;
+    public int[] match(int[] tokens1, int[] tokens2, int maxToken) {
+        this.tokens1 = tokens1;
+        this.tokens2 = tokens2;
+        this.maxToken = maxToken;
+        matches = new int[tokens1.length];
+        Arrays.fill(matches, -1);
+
+        if (pool == null || tokens1.length + tokens2.length < parallelThreshold) {
+            Worker worker = acquireWorker();
+            worker.match(0, tokens1.length, 0, tokens2.length, null);
+            workers.add(worker);
+        } else {
+            pool.invoke(new MatchTask(0, tokens1.length, 0, tokens2.length));
         }
+        return matches;
+    }
 
-        if (any) {
-            match(start1, end1, start2, end2);
+    private Worker acquireWorker() {
+        Worker worker = workers.poll();
+        if (worker == null) {
+            worker = new Worker();
         }
+        worker.ensureCapacity(maxToken, tokens1.length);
+        return worker;
     }
 
-    private int[] match() {
-        matches = new int[chars1.length()];
-        for (int i = 0; i < chars1.length(); i++) {
-            matches[i] = -1;
+    private class MatchTask extends RecursiveAction {
+
+        private final int start1;
+        private final int end1;
+        private final int start2;
+        private final int end2;
+
+        private MatchTask(int start1, int end1, int start2, int end2) {
+            this.start1 = start1;
+            this.end1 = end1;
+            this.start2 = start2;
+            this.end2 = end2;
         }
 
-        match(0, chars1.length(), 0, chars2.length());
-        return matches;
+        @Override
+        protected void compute() {
+            List<MatchTask> forks = new ArrayList<>();
+            // Release the worker before forking, so idle workers are only held by running tasks.
+            Worker worker = acquireWorker();
+            worker.match(start1, end1, start2, end2, forks);
+            workers.add(worker);
+            invokeAll(forks);
+        }
     }
 
-    public int[] match(String chars1, String chars2, int maxChar) {
-        if (unique1 == null || unique1.length < maxChar) {
-            unique1 = new int[maxChar];
-            unique2 = new int[maxChar];
-            for (int i = 0; i < maxChar; i++) {
-                unique1[i] = unique2[i] = -1;
+    // Holds the scratch state for matching a range, used by a single thread at a time.
+    private class Worker {
+
+        private int[] unique1 = new int[0];
+        private int[] unique2 = new int[0];
+
+        // ranges yet to be matched, 4 ints per range
+        private int[] work = new int[64];
+        private int workSize;
+
+        // scratch buffers for lcsUnique, reused between calls
+        private int[] subTokens = new int[0];
+        private int[] common1 = new int[0];
+        private int[] common2 = new int[0];
+        private int[] pileTops = new int[0];
+        private int[] prev = new int[0];
+        private int[] las = new int[0];
+
+        private void ensureCapacity(int maxToken, int len) {
+            if (unique1.length < maxToken) {
+                unique1 = new int[maxToken];
+                unique2 = new int[maxToken];
+                Arrays.fill(unique1, -1);
+                Arrays.fill(unique2, -1);
+            }
+            if (common1.length < len) {
+                subTokens = new int[len];
+                common1 = new int[len];
+                common2 = new int[len];
+                pileTops = new int[len];
+                prev = new int[len];
+                las = new int[len];
             }
         }
 
-        this.chars1 = chars1;
-        this.chars2 = chars2;
+        // Matches the given range and all ranges between its anchors.
+        // If forks is non-null, ranges above the parallel threshold are added to it instead.
+        private void match(int start1, int end1, int start2, int end2, @Nullable List<MatchTask> forks) {
+            matchRange(start1, end1, start2, end2);
+            while (workSize > 0) {
+                workSize -= 4;
+                int s1 = work[workSize];
+                int e1 = work[workSize + 1];
+                int s2 = work[workSize + 2];
+                int e2 = work[workSize + 3];
+                if (forks != null && e1 - s1 + e2 - s2 >= parallelThreshold) {
+                    forks.add(new MatchTask(s1, e1, s2, e2));
+                } else {
+                    matchRange(s1, e1, s2, e2);
+                }
+            }
+        }
 
-        return match();
-    }
+        private void matchRange(int start1, int end1, int start2, int end2) {
+            // step 1: match up identical starting lines
+            while (start1 < end1 && start2 < end2 && tokens1[start1] == tokens2[start2]) {
+                matches[start1++] = start2++;
+            }
 
-    private final IntList subChars = new IntArrayList();
+            // step 2: match up identical ending lines
+            while (start1 < end1 && start2 < end2 && tokens1[end1 - 1] == tokens2[end2 - 1]) {
+                matches[--end1] = --end2;
+            }
 
-    private List<Int2IntMap.Entry> lcsUnique(int start1, int end1, int start2, int end2) {
-        //identify all the unique chars in chars1
-        for (int i = start1; i < end1; i++) {
-            int c = chars1.charAt(i);
+            if (start1 == end1 || start2 == end2  // no lines on a side
+                || end1 - start1 + end2 - start2 <= 3) { // either a 1-2 or 2-1 which would've been matched by steps 1 and 2
+                return;
+            }
 
-            if (unique1[c] == -1) {//no lines
-                unique1[c] = i;
-                subChars.add(c);
-            } else {
-                unique1[c] = -2;//not unique
+            if (budget != null) {
+                budget.spend(end1 - start1 + end2 - start2);
             }
-        }
 
-        //identify all the unique chars in chars2, provided they were unique in chars1
-        for (int i = start2; i < end2; i++) {
-            int c = chars2.charAt(i);
-            if (unique1[c] < 0) {
-                continue;
+            // step 3: match up common unique lines
+            int n = lcsUnique(start1, end1, start2, end2);
+            if (n == 0) {
+                return;
             }
 
-            unique2[c] = unique2[c] == -1 ? i : -2;
-        }
+            // step 4: queue the ranges between each match, in reverse so they are processed in file order
+            int m1 = las[n - 1];
+            pushWork(common1[m1] + 1, end1, common2[m1] + 1, end2);
+            for (int i = n - 1; i >= 0; i--) {
+                int c = las[i];
+                matches[common1[c]] = common2[c];
 
-        //extract common unique subsequences
-        IntList common1 = new IntArrayList();
-        IntList common2 = new IntArrayList();
-        for (int i : subChars) {
-            if (unique1[i] >= 0 && unique2[i] >= 0) {
-                common1.add(unique1[i]);
-                common2.add(unique2[i]);
+                int prevEnd1 = i > 0 ? common1[las[i - 1]] + 1 : start1;
+                int prevEnd2 = i > 0 ? common2[las[i - 1]] + 1 : start2;
+                pushWork(prevEnd1, common1[c], prevEnd2, common2[c]);
             }
-            unique1[i] = unique2[i] = -1; //reset for next use
         }
-        subChars.clear();
 
-        if (common2.isEmpty()) {
-            return Collections.emptyList();
+        private void pushWork(int start1, int end1, int start2, int end2) {
+            if (workSize + 4 > work.length) {
+                work = Arrays.copyOf(work, work.length * 2);
+            }
+            work[workSize++] = start1;
+            work[workSize++] = end1;
+            work[workSize++] = start2;
+            work[workSize++] = end2;
         }
-        List<Int2IntMap.Entry> ret = new ArrayList<>();
 
-        // repose the longest common subsequence as longest ascending subsequence
-        // note that common2 is already sorted by order of appearance in file1 by of char allocation
-        for (int i : lasIndices(common2)) {
-            ret.add(new AbstractInt2IntMap.BasicEntry(common1.getInt(i), common2.getInt(i)));
+        // Computes the longest common subsequence of lines unique to both ranges.
+        // The result is the returned number of indices in las, which index into common1 and common2.
+        private int lcsUnique(int start1, int end1, int start2, int end2) {
+            int numSubTokens = 0;
+            //identify all the unique tokens in tokens1
+            for (int i = start1; i < end1; i++) {
+                int c = tokens1[i];
+
+                if (unique1[c] == -1) {//no lines
+                    unique1[c] = i;
+                    subTokens[numSubTokens++] = c;
+                } else {
+                    unique1[c] = -2;//not unique
+                }
+            }
+
+            //identify all the unique tokens in tokens2, provided they were unique in tokens1
+            for (int i = start2; i < end2; i++) {
+                int c = tokens2[i];
+                if (unique1[c] < 0) {
+                    continue;
+                }
+
+                unique2[c] = unique2[c] == -1 ? i : -2;
+            }
+
+            //extract common unique subsequences
+            int numCommon = 0;
+            for (int j = 0; j < numSubTokens; j++) {
+                int i = subTokens[j];
+                if (unique1[i] >= 0 && unique2[i] >= 0) {
+                    common1[numCommon] = unique1[i];
+                    common2[numCommon] = unique2[i];
+                    numCommon++;
+                }
+                unique1[i] = unique2[i] = -1; //reset for next use
+            }
+
+            if (numCommon == 0) {
+                return 0;
+            }
+
+            // repose the longest common subsequence as longest ascending subsequence
+            // note that common2 is already sorted by order of appearance in file1 by of token allocation
+            return lasIndices(common2, numCommon, pileTops, prev, las);
         }
-        return ret;
     }
 
     //https://en.wikipedia.org/wiki/Patience_sorting
     public static int[] lasIndices(IntList sequence) {
-        if (sequence.isEmpty()) {
-            return new int[0];
+        int len = sequence.size();
+        int[] las = new int[len];
+        int n = lasIndices(sequence.toIntArray(), len, new int[len], new int[len], las);
+        return Arrays.copyOf(las, n);
+    }
+
+    /**
+     * Computes the indices of the longest ascending subsequence of {@code sequence}.
+     *
+     * @param sequence The sequence.
+     * @param len      The number of elements of {@code sequence} to consider.
+     * @param pileTops Scratch space, at least {@code len} long.
+     * @param prev     Scratch space, at least {@code len} long.
+     * @param las      The output array, at least {@code len} long.
+     * @return The number of indices written to {@code las}.
+     */
+    public static int lasIndices(int[] sequence, int len, int[] pileTops, int[] prev, int[] las) {
+        if (len == 0) {
+            return 0;
         }
 
-        List<LCANode> pileTops = new ArrayList<>();
-        pileTops.add(new LCANode(0, null));
-        for (int i = 1; i < sequence.size(); i++) {
-            int v = sequence.getInt(i);
+        int numPiles = 1;
+        pileTops[0] = 0;
+        prev[0] = -1;
+        for (int i = 1; i < len; i++) {
+            int v = sequence[i];
 
             //binary search for the first pileTop > v
             int a = 0;
-            int b = pileTops.size();
+            int b = numPiles;
             while (a != b) {
                 int c = (a + b) / 2;
-                if (sequence.getInt(pileTops.get(c).value) > v) {
+                if (sequence[pileTops[c]] > v) {
                     b = c;
                 } else {
                     a = c + 1;
                 }
             }
 
-            if (a < pileTops.size()) {
-                pileTops.set(a, new LCANode(i, a > 0 ? pileTops.get(a - 1) : null));
-            } else {
-                pileTops.add(new LCANode(i, pileTops.get(a - 1)));
+            prev[i] = a > 0 ? pileTops[a - 1] : -1;
+            pileTops[a] = i;
+            if (a == numPiles) {
+                numPiles++;
             }
         }
 
         //follow pointers back through path
-        int[] las = new int[pileTops.size()];
-        int j = pileTops.size() - 1;
-        for (LCANode node = pileTops.get(j); node != null; node = node.prev) {
-            las[j--] = node.value;
+        int j = numPiles - 1;
+        for (int node = pileTops[j]; node != -1; node = prev[node]) {
+            las[j--] = node;
         }
 
-        return las;
+        return numPiles;
     }
-
-    private static class LCANode {
-
-        public final int value;
-        public final LCANode prev;
-
-        public LCANode(int value, LCANode prev) {
-            this.value = value;
-            this.prev = prev;
-        }
-    }
-
 }
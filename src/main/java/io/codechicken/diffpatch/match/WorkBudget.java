@@ -0,0 +1,45 @@
+package io.codechicken.diffpatch.match;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the work a single match may do, counted in line comparisons.
+ * <p>
+ * Matchers charge work before doing it, and throw {@link ExceededException} once the limit
+ * is passed. The work charged only depends on the input, so whether a budget is exceeded
+ * is deterministic, including when matching in parallel.
+ */
+public final class WorkBudget {
+
+    private final long limit;
+    private final AtomicLong spent = new AtomicLong();
+
+    public WorkBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Charge the given amount of work.
+     *
+     * @param work The work, in line comparisons.
+     * @throws ExceededException If the total work charged passes the limit.
+     */
+    public void spend(long work) {
+        if (spent.addAndGet(work) > limit) throw new ExceededException();
+    }
+
+    //@formatter:off
+    public long getLimit() { return limit; }
+    public long getSpent() { return spent.get(); }
+    //@formatter:on
+
+    /**
+     * Thrown when a {@link WorkBudget} is exceeded, callers are expected to discard any partial result.
+     */
+    public static class ExceededException extends RuntimeException {
+
+        public ExceededException() {
+            super("Work budget exceeded.", null, false, false);
+        }
+    }
+}
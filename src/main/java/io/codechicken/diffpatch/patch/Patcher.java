@@ -2,7 +2,11 @@ package io.codechicken.diffpatch.patch;
 
 import io.codechicken.diffpatch.match.FuzzyLineMatcher;
 import io.codechicken.diffpatch.util.*;
-import net.covers1624.quack.collection.ColUtils;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongList;
 import net.covers1624.quack.collection.FastStream;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.Nullable;
@@ -12,15 +16,24 @@ import java.util.concurrent.atomic.AtomicReference;
 
 public class Patcher {
 
+    // the most locations the fuzzy prefilter generates from rare words, before widening each by maxMatchOffset
+    public static final int MAX_FUZZY_CANDIDATES = 64;
+
     private static final List<String> ACCESS_WORDS = Arrays.asList("public", "protected", "private", "final", " ", "\t");
 
     public final List<WorkingPatch> patches;
     public List<String> lines;
+    // lines while patching, so hunks are spliced in without shifting the rest of the file
+    private final GapList<String> lineBuffer;
+    // hash of each line in lines, see HashedLines
+    private final LongGapList lineHashes;
     private boolean applied;
 
     // Last here means highest line number, not necessarily most recent.
     // Patches can only apply before lastAppliedPatch in fuzzy mode
     private @Nullable Patch lastAppliedPatch = null;
+    // trimmed range2 and length delta of each applied patch, see WorkingPatch.getKeepoutRange2
+    private final RangeIndex<Patch> appliedRanges = new RangeIndex<>();
 
     // we maintain delta as the offset of the last patch (applied location - expected location)
     // this way if a line is inserted, and all patches are offset by 1, only the first patch is reported as offset
@@ -28,11 +41,20 @@ public class Patcher {
     private int searchOffset;
 
     private final CharRepresenter charRep;
-    private @Nullable String lmText;
-    private @Nullable List<String> wmLines;
+    // line mode tokens of lines, indexed for the context search in OFFSET mode
+    private @Nullable KGramIndex lmText;
+    private @Nullable GapList<int[]> wmLines;
+    // signature of each line in wmLines, see FuzzyLineMatcher.signature
+    private @Nullable LongGapList wmSignatures;
+    // word tokens of wmLines to the lines containing them, for the fuzzy prefilter
+    private @Nullable LineTokenIndex wmIndex;
+    // MatchMatrix objects over wmLines, reused between fuzzy matched patches
+    private final List<FuzzyLineMatcher.MatchMatrix> matrixPool = new ArrayList<>();
 
     public final int maxMatchOffset;
     public final float minMatchScore;
+    // score fuzzy matches only near lines sharing the context's rarest words, see candidateMatch
+    private boolean fuzzyPrefilter;
 
     public Patcher(PatchFile patchFile, List<String> lines) {
         this(patchFile, lines, null, FuzzyLineMatcher.DEFAULT_MIN_MATCH_SCORE, FuzzyLineMatcher.MatchMatrix.DEFAULT_MAX_OFFSET);
@@ -44,7 +66,8 @@ public class Patcher {
 
     public Patcher(PatchFile patchFile, List<String> lines, @Nullable CharRepresenter charRep, float minFuzz, int maxOffset) {
         this.patches = FastStream.of(patchFile.patches).map(WorkingPatch::new).toList();
-        this.lines = new ArrayList<>(lines);
+        this.lines = lineBuffer = new GapList<>(lines);
+        lineHashes = new LongGapList(HashedLines.hashes(lines));
         if (charRep == null) {
             charRep = new CharRepresenter();
         }
@@ -53,6 +76,11 @@ public class Patcher {
         this.maxMatchOffset = maxOffset;
     }
 
+    //@formatter:off
+    public boolean isFuzzyPrefilter() { return fuzzyPrefilter; }
+    public void setFuzzyPrefilter(boolean fuzzyPrefilter) { this.fuzzyPrefilter = fuzzyPrefilter; }
+    //@formatter:on
+
     public List<Result> patch(PatchMode mode) {
         if (applied) {
             throw new RuntimeException("Already applied");
@@ -77,54 +105,68 @@ public class Patcher {
             patch.result.searchOffset = searchOffset;
             searchOffset -= patch.length2 - patch.length1;
         }
+        lines = new ArrayList<>(lineBuffer);
         return FastStream.of(patches).map(e -> e.result).toList();
 
     }
 
-    private void linesToChars() {
+    private void linesToTokens() {
         for (WorkingPatch patch : patches) {
-            patch.linesToChars(charRep);
+            patch.linesToTokens(charRep);
         }
 
-        lmText = charRep.linesToChars(lines);
+        lmText = new KGramIndex(charRep.linesToTokens(lines));
     }
 
-    private void wordsToChars() {
+    private void wordsToTokens() {
         for (WorkingPatch patch : patches) {
-            patch.wordsToChars(charRep);
+            patch.wordsToTokens(charRep);
         }
 
-        wmLines = FastStream.of(lines).map(charRep::wordsToChars).toList();
+        wmLines = new GapList<>(FastStream.of(lines).map(charRep::wordsToTokens).toList());
+        wmSignatures = new LongGapList(FuzzyLineMatcher.signatures(wmLines).toLongArray());
+    }
+
+    private boolean contextMatchesAt(int loc, WorkingPatch patch) {
+        long[] contextHashes = patch.getContextHashes();
+        if (contextHashes.length != patch.length1) {
+            return false;
+        }
+        for (int i = 0; i < contextHashes.length; i++) {
+            if (lineHashes.getLong(loc + i) != contextHashes[i]) {
+                return false;
+            }
+        }
+        return patch.getContextLines().equals(lines.subList(loc, loc + patch.length1));
     }
 
     private Patch applyExactAt(int loc, WorkingPatch patch) {
-        if (!patch.getContextLines().equals(lines.subList(loc, loc + patch.length1))) {
+        if (!contextMatchesAt(loc, patch)) {
             throw new RuntimeException("Patch engine failure");
         }
         if (!canApplySafelyAt(loc, patch)) {
             throw new RuntimeException("Patch affects another patch");
         }
 
-        lines.subList(loc, loc + patch.length1).clear();
-        lines.addAll(loc, patch.getPatchedLines());
+        List<String> patchedLines = patch.getPatchedLines();
+        lineBuffer.replace(loc, patch.length1, patchedLines);
+        lineHashes.replace(loc, patch.length1, HashedLines.hashes(patchedLines));
 
         // update the lineModeText
         if (lmText != null) {
-            lmText = lmText.substring(0, loc) + patch.lmPatched + lmText.substring(loc + patch.length1);
+            lmText.replace(loc, patch.length1, patch.lmPatched);
         }
 
         // update the wordModeLines
         if (wmLines != null) {
-            wmLines.subList(loc, loc + patch.length1).clear();
-            wmLines.addAll(loc, patch.wmPatched);
+            wmLines.replace(loc, patch.length1, patch.wmPatched);
+            wmSignatures.replace(loc, patch.length1, FuzzyLineMatcher.signatures(patch.wmPatched).toLongArray());
+            if (wmIndex != null) {
+                wmIndex.replace(loc, patch.length1, patch.wmPatched.size());
+            }
         }
 
-        int patchedDelta = FastStream.of(patches)
-                .filter(e -> {
-                    LineRange r = e.getKeepoutRange2();
-                    return r != null && r.getEnd() <= loc;
-                })
-                .intSum(e -> e.getAppliedDelta().getAsInt());
+        int patchedDelta = appliedRanges.deltaBefore(loc);
         Patch appliedPatch = patch;
         if (appliedPatch.start2 != loc || appliedPatch.start1 != loc - patchedDelta) {
             appliedPatch = new Patch(patch);
@@ -134,16 +176,13 @@ public class Patcher {
 
         // update the applied location for patches following this one in the file, but preceding it in the patch list
         // can only happen if fuzzy matching causes a patch to move before one of the previously applied patches
+        int delta = appliedPatch.length2 - appliedPatch.length1;
         if (loc < getModifiedRange().getEnd()) {
-            for (WorkingPatch p : patches) {
-                LineRange r = p.getKeepoutRange2();
-                if (r != null && r.getStart() > loc) {
-                    p.result.appliedPatch.start2 += appliedPatch.length2 - appliedPatch.length1;
-                }
-            }
+            appliedRanges.shiftAfter(loc, delta, p -> p.start2 += delta);
         } else {
             lastAppliedPatch = appliedPatch;
         }
+        appliedRanges.add(appliedPatch, appliedPatch.getTrimmedRange2(), delta);
 
         searchOffset = appliedPatch.start2 - patch.start2;
         return appliedPatch;
@@ -154,11 +193,7 @@ public class Patcher {
             return true;
         }
 
-        LineRange range = LineRange.fromStartLen(loc, patch.length1);
-        return ColUtils.allMatch(patches, p -> {
-            LineRange r = p.getKeepoutRange2();
-            return r == null || !r.contains(range);
-        });
+        return !appliedRanges.anyContains(LineRange.fromStartLen(loc, patch.length1));
     }
 
     private boolean applyExact(WorkingPatch patch) {
@@ -167,7 +202,7 @@ public class Patcher {
             return false;
         }
 
-        if (!patch.getContextLines().equals(lines.subList(loc, loc + patch.length1))) {
+        if (!contextMatchesAt(loc, patch)) {
             return false;
         }
 
@@ -177,13 +212,18 @@ public class Patcher {
 
     private boolean applyOffset(WorkingPatch patch) {
         if (lmText == null) {
-            linesToChars();
+            linesToTokens();
         }
 
         if (patch.length1 > lines.size()) {
             return false;
         }
 
+        // skip the search if the context is certainly absent
+        if (!lmText.mayContain(patch.lmContext)) {
+            return false;
+        }
+
         int loc = patch.start2 + searchOffset;
         if (loc < 0) {
             loc = 0;
@@ -192,7 +232,7 @@ public class Patcher {
         }
 
         int forward = lmText.indexOf(patch.lmContext, loc);
-        int reverse = lmText.lastIndexOf(patch.lmContext, Math.min(loc + patch.lmContext.length(), lines.size() - 1));
+        int reverse = lmText.lastIndexOf(patch.lmContext, Math.min(loc + patch.lmContext.length, lines.size() - 1));
 
         if (!canApplySafelyAt(forward, patch)) {
             forward = -1;
@@ -214,7 +254,7 @@ public class Patcher {
 
     private boolean applyAccess(WorkingPatch patch) {
         if (wmLines == null) {
-            wordsToChars();
+            wordsToTokens();
         }
 
         int loc = patch.start2 + searchOffset;
@@ -222,33 +262,31 @@ public class Patcher {
             return false;
         }
 
-        List<String> wmLines = this.wmLines.subList(loc, loc + patch.length1);
+        List<int[]> wmLines = this.wmLines.subList(loc, loc + patch.length1);
 
         if (patch.wmContext.size() != wmLines.size()) {
             return false;
         }
 
-        int[] aWordCounts = new int[charRep.getMaxWordChar()];
-        int[] bWordCounts = new int[charRep.getMaxWordChar()];
-
         int[] match = new int[patch.wmContext.size()];
-
-        for (int i = 0; i < patch.wmContext.size(); i++) {
+        for (int i = 0; i < match.length; i++) {
             match[i] = loc + i;
-            // Count words in both lines.
-            for (char c : patch.wmContext.get(i).toCharArray()) {
-                aWordCounts[c]++;
-            }
-            for (char c : wmLines.get(i).toCharArray()) {
-                bWordCounts[c]++;
-            }
         }
 
-        // Ensure only the allowed words change in counts.
+        // Compare word counts by merging sorted words, a table over all word tokens grows with a shared CharRepresenter.
+        int[] aWords = sortedWords(patch.wmContext);
+        int[] bWords = sortedWords(wmLines);
         int accessChanges = 0;
-        for (int i = 0; i < aWordCounts.length; i++) {
-            if (aWordCounts[i] != bWordCounts[i]) {
-                if (!ACCESS_WORDS.contains(charRep.getWordForChar((char) i))) {
+        for (int a = 0, b = 0; a < aWords.length || b < bWords.length; ) {
+            int t = a == aWords.length ? bWords[b] : b == bWords.length ? aWords[a] : Math.min(aWords[a], bWords[b]);
+            int aCount = 0;
+            int bCount = 0;
+            for (; a < aWords.length && aWords[a] == t; a++) aCount++;
+            for (; b < bWords.length && bWords[b] == t; b++) bCount++;
+
+            // Ensure only the allowed words change in counts.
+            if (aCount != bCount) {
+                if (!ACCESS_WORDS.contains(charRep.getWordForToken(t))) {
                     return false;
                 } else {
                     accessChanges++;
@@ -260,18 +298,33 @@ public class Patcher {
         }
 
         WorkingPatch fuzzyPatch = new WorkingPatch(adjustPatchToMatchedLines(patch, match, lines));
-        fuzzyPatch.wordsToChars(charRep);
+        fuzzyPatch.wordsToTokens(charRep);
         if (lmText != null) {
-            fuzzyPatch.linesToChars(charRep);
+            fuzzyPatch.linesToTokens(charRep);
         }
 
         patch.succeed(PatchMode.ACCESS, applyExactAt(loc, fuzzyPatch));
         return true;
     }
 
+    private static int[] sortedWords(List<int[]> lines) {
+        int len = 0;
+        for (int[] line : lines) {
+            len += line.length;
+        }
+        int[] words = new int[len];
+        int i = 0;
+        for (int[] line : lines) {
+            System.arraycopy(line, 0, words, i, line.length);
+            i += line.length;
+        }
+        Arrays.sort(words);
+        return words;
+    }
+
     private boolean applyFuzzy(WorkingPatch patch) {
         if (wmLines == null) {
-            wordsToChars();
+            wordsToTokens();
         }
 
         int loc = patch.start2 + searchOffset;
@@ -287,10 +340,10 @@ public class Patcher {
 
         WorkingPatch fuzzyPatch = new WorkingPatch(adjustPatchToMatchedLines(patch, match, lines));
         if (wmLines != null) {
-            fuzzyPatch.wordsToChars(charRep);
+            fuzzyPatch.wordsToTokens(charRep);
         }
         if (lmText != null) {
-            fuzzyPatch.linesToChars(charRep);
+            fuzzyPatch.linesToTokens(charRep);
         }
 
         // if the patch needs lines trimmed off it, the early match entries will be negative
@@ -346,34 +399,139 @@ public class Patcher {
         return fuzzyPatch;
     }
 
-    private Pair<int[], Float> findMatch(int loc, List<String> wmContext) {
+    private Pair<int[], Float> findMatch(int loc, List<int[]> wmContext) {
         // fuzzy matching is more complex because we need to split up the patched file to only search _between_ previously applied patches
-        List<LineRange> keepoutRanges = FastStream.of(patches)
-                .map(WorkingPatch::getKeepoutRange2)
-                .filter(Objects::nonNull)
-                .toList();
-
         // parts of file to search in
-        List<LineRange> ranges = LineRange.fromStartLen(0, wmLines.size()).except(keepoutRanges);
+        List<LineRange> ranges = appliedRanges.except(LineRange.fromStartLen(0, wmLines.size()));
+        LongList contextSigs = FuzzyLineMatcher.signatures(wmContext);
 
-        return fuzzyMatch(wmContext, wmLines, loc, maxMatchOffset, minMatchScore, ranges);
+        if (fuzzyPrefilter) {
+            Pair<int[], Float> match = candidateMatch(wmContext, contextSigs, loc, ranges);
+            if (match.getLeft() != null) {
+                return match;
+            }
+            // no candidate matched, fall back to searching the whole file
+        }
+        return fuzzyMatch(matrixPool, wmContext, contextSigs, wmLines, wmSignatures, loc, maxMatchOffset, minMatchScore, ranges);
     }
 
-    public static Pair<int[], Float> fuzzyMatch(List<String> wmPattern, List<String> wmText, int loc, int maxMatchOffset, float minMatchScore, @Nullable List<LineRange> ranges) {
+    // Like fuzzyMatch, but only scores locations within maxMatchOffset of where a line sharing one of the context's
+    // rarest words would put the context. Scores are penalised by distance as fuzzyMatch does, and ties go to the
+    // location fuzzyMatch would reach first.
+    private Pair<int[], Float> candidateMatch(List<int[]> wmContext, LongList contextSigs, int loc, List<LineRange> ranges) {
+        if (wmIndex == null) {
+            wmIndex = new LineTokenIndex(wmLines);
+        }
+
+        // each word, in order of first use, with the context lines using it
+        Int2ObjectLinkedOpenHashMap<IntArrayList> words = new Int2ObjectLinkedOpenHashMap<>();
+        for (int i = 0; i < wmContext.size(); i++) {
+            for (int token : wmContext.get(i)) {
+                IntArrayList uses = words.computeIfAbsent(token, e -> new IntArrayList());
+                if (uses.isEmpty() || uses.getInt(uses.size() - 1) != i) {
+                    uses.add(i);
+                }
+            }
+        }
+        LineTokenIndex index = wmIndex;
+        int[] rarest = words.keySet().toIntArray();
+        // stable, so words as rare as each other stay in order of first use
+        IntArrays.mergeSort(rarest, (a, b) -> Integer.compare(index.frequency(a), index.frequency(b)));
+
+        IntOpenHashSet starts = new IntOpenHashSet();
+        for (int token : rarest) {
+            if (starts.size() >= MAX_FUZZY_CANDIDATES || index.frequency(token) > MAX_FUZZY_CANDIDATES) {
+                break;
+            }
+            IntArrayList uses = words.get(token);
+            index.forEachLine(token, l -> {
+                for (int i = 0; i < uses.size(); i++) {
+                    starts.add(l - uses.getInt(i));
+                }
+            });
+        }
+        if (starts.isEmpty()) {
+            return Pair.of(null, minMatchScore);
+        }
+
+        // merge the windows around each start
+        int[] sorted = starts.toIntArray();
+        Arrays.sort(sorted);
+        List<LineRange> windows = new ArrayList<>();
+        for (int start : sorted) {
+            LineRange window = LineRange.fromFirstLast(start - maxMatchOffset, start + maxMatchOffset);
+            LineRange last = windows.isEmpty() ? null : windows.get(windows.size() - 1);
+            if (last != null && window.getStart() <= last.getEnd()) {
+                last.setEnd(window.getEnd());
+            } else {
+                windows.add(window);
+            }
+        }
+
+        float penaltyPerLine = 1f / (10 * offsetWarnDistance(wmContext.size(), wmLines.size()));
+        float bestScore = minMatchScore;
+        int[] bestMatch = null;
+        int bestRank = Integer.MAX_VALUE;
+        FuzzyLineMatcher.MatchMatrix mm = pooledMatrix(matrixPool, 0, wmLines, wmSignatures, maxMatchOffset);
+        for (LineRange range : ranges) {
+            mm.reset(wmContext, contextSigs, range);
+            for (LineRange window : windows) {
+                int first = Math.max(window.getFirst(), mm.workingRange.getFirst());
+                int last = Math.min(window.getLast(), mm.workingRange.getLast());
+                for (int at = first; at <= last; at++) {
+                    int dist = Math.abs(at - loc);
+                    // MatchRunner steps both ways from loc, forward first
+                    int rank = 2 * dist + (at < loc ? 1 : 0);
+                    float penalty = -0.1f + dist * penaltyPerLine;
+                    float score = mm.matchScore(at);
+                    if (penalty > 0) {
+                        score -= penalty;
+                    }
+                    if (score > bestScore || score == bestScore && bestMatch != null && rank < bestRank) {
+                        bestScore = score;
+                        bestMatch = mm.path();
+                        bestRank = rank;
+                    }
+                }
+            }
+        }
+        return Pair.of(bestMatch, bestScore);
+    }
+
+    public static Pair<int[], Float> fuzzyMatch(List<int[]> wmPattern, List<int[]> wmText, int loc, int maxMatchOffset, float minMatchScore, @Nullable List<LineRange> ranges) {
+        return fuzzyMatch(wmPattern, FuzzyLineMatcher.signatures(wmPattern), wmText, FuzzyLineMatcher.signatures(wmText), loc, maxMatchOffset, minMatchScore, ranges);
+    }
+
+    public static Pair<int[], Float> fuzzyMatch(List<int[]> wmPattern, LongList patternSigs, List<int[]> wmText, LongList textSigs, int loc, int maxMatchOffset, float minMatchScore, @Nullable List<LineRange> ranges) {
+        return fuzzyMatch(new ArrayList<>(), wmPattern, patternSigs, wmText, textSigs, loc, maxMatchOffset, minMatchScore, ranges);
+    }
+
+    // matrixPool holds MatchMatrix objects over wmText, which are reset and reused for each call
+    private static Pair<int[], Float> fuzzyMatch(List<FuzzyLineMatcher.MatchMatrix> matrixPool, List<int[]> wmPattern, LongList patternSigs, List<int[]> wmText, LongList textSigs, int loc, int maxMatchOffset, float minMatchScore, @Nullable List<LineRange> ranges) {
         if (ranges == null) {
             ranges = Collections.singletonList(LineRange.fromStartLen(0, wmText.size()));
         }
 
-        // we're creating twice as many MatchMatrix objects as we need, incurring some wasted allocation and setup time, but it reads easier than trying to precompute all the edge cases
-        List<FuzzyLineMatcher.MatchMatrix> fwdMatchers = FastStream.of(ranges)
-                .map(r -> new FuzzyLineMatcher.MatchMatrix(wmPattern, wmText, maxMatchOffset, r))
-                .filter(m -> loc < m.workingRange.getLast())
-                .toList();
-        List<FuzzyLineMatcher.MatchMatrix> revMatchers = FastStream.of(ranges)
-                .reversed()
-                .map(r -> new FuzzyLineMatcher.MatchMatrix(wmPattern, wmText, maxMatchOffset, r))
-                .filter(m -> loc > m.workingRange.getFirst())
-                .toList();
+        // a matrix is reset for each range in each direction, those that don't apply are reused for the next range
+        int used = 0;
+        List<FuzzyLineMatcher.MatchMatrix> fwdMatchers = new ArrayList<>();
+        for (LineRange r : ranges) {
+            FuzzyLineMatcher.MatchMatrix m = pooledMatrix(matrixPool, used, wmText, textSigs, maxMatchOffset);
+            m.reset(wmPattern, patternSigs, r);
+            if (loc < m.workingRange.getLast()) {
+                fwdMatchers.add(m);
+                used++;
+            }
+        }
+        List<FuzzyLineMatcher.MatchMatrix> revMatchers = new ArrayList<>();
+        for (int i = ranges.size() - 1; i >= 0; i--) {
+            FuzzyLineMatcher.MatchMatrix m = pooledMatrix(matrixPool, used, wmText, textSigs, maxMatchOffset);
+            m.reset(wmPattern, patternSigs, ranges.get(i));
+            if (loc > m.workingRange.getFirst()) {
+                revMatchers.add(m);
+                used++;
+            }
+        }
 
         int warnDist = offsetWarnDistance(wmPattern.size(), wmText.size());
         float penaltyPerLine = 1f / (10 * warnDist);
@@ -390,6 +548,13 @@ public class Patcher {
         return Pair.of(bestMatch.get(), bestScore.get());
     }
 
+    private static FuzzyLineMatcher.MatchMatrix pooledMatrix(List<FuzzyLineMatcher.MatchMatrix> matrixPool, int index, List<int[]> wmText, LongList textSigs, int maxMatchOffset) {
+        if (index == matrixPool.size()) {
+            matrixPool.add(new FuzzyLineMatcher.MatchMatrix(wmText, textSigs, maxMatchOffset));
+        }
+        return matrixPool.get(index);
+    }
+
     // patches applying within this range (due to fuzzy matching) will cause patch reordering
     private LineRange getModifiedRange() {
         return new LineRange(0, lastAppliedPatch != null ? lastAppliedPatch.getTrimmedRange2().getEnd() : 0);
@@ -438,13 +603,12 @@ public class Patcher {
             // active MatchMatrix runs
             for (int i = active.getFirst(); i <= active.getLast(); i++) {
                 FuzzyLineMatcher.MatchMatrix mm = mms.get(i);
-                Pair<Boolean, Float> pair = mm.match(loc);
-                float score = pair.getRight();
-                if (!pair.getLeft()) {
+                if (!mm.hasMatch(loc)) {
                     //Debug.Assert(i == active.first, "Match matricies out of order?");
                     active.setFirst(active.getFirst() + 1);
                     continue;
                 }
+                float score = mm.matchScore(loc);
 
                 if (penalty > 0) { //ignore penalty for the first 10%
                     score -= penalty;
@@ -467,10 +631,11 @@ public class Patcher {
     public static class WorkingPatch extends Patch {
 
         public @Nullable Result result;
-        public @Nullable String lmContext;
-        public @Nullable String lmPatched;
-        public @Nullable List<String> wmContext;
-        public @Nullable List<String> wmPatched;
+        public @Nullable int[] lmContext;
+        public @Nullable int[] lmPatched;
+        public @Nullable List<int[]> wmContext;
+        public @Nullable List<int[]> wmPatched;
+        private long @Nullable [] contextHashes;
 
         public WorkingPatch(Patch other) {
             super(other);
@@ -494,14 +659,21 @@ public class Patcher {
             result.fuzzyQuality = fuzzQuality;
         }
 
-        public void linesToChars(CharRepresenter rep) {
-            lmContext = rep.linesToChars(getContextLines());
-            lmPatched = rep.linesToChars(getPatchedLines());
+        public void linesToTokens(CharRepresenter rep) {
+            lmContext = rep.linesToTokens(getContextLines());
+            lmPatched = rep.linesToTokens(getPatchedLines());
+        }
+
+        public long[] getContextHashes() {
+            if (contextHashes == null) {
+                contextHashes = HashedLines.hashes(getContextLines());
+            }
+            return contextHashes;
         }
 
-        public void wordsToChars(CharRepresenter rep) {
-            wmContext = getContextLines(rep::wordsToChars);
-            wmPatched = getPatchedLines(rep::wordsToChars);
+        public void wordsToTokens(CharRepresenter rep) {
+            wmContext = getContextLines(rep::wordsToTokens);
+            wmPatched = getPatchedLines(rep::wordsToTokens);
         }
 
         public @Nullable LineRange getKeepoutRange2() {
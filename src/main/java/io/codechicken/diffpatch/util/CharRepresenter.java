@@ -1,58 +1,103 @@
 package io.codechicken.diffpatch.util;
 
-import it.unimi.dsi.fastutil.objects.Object2CharMap;
-import it.unimi.dsi.fastutil.objects.Object2CharOpenHashMap;
-
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
- * Converts Equal lines into equal single characters
- * and Equal single words into equal single characters.
+ * Converts Equal lines into equal int tokens
+ * and Equal single words into equal int tokens.
+ * <p>
+ * Tokens are not limited to the {@code char} range, a single
+ * instance may be shared across many files. Instances created via
+ * {@link #concurrent()} may also be shared across threads.
  */
 public class CharRepresenter {
 
-    private final List<String> charToLine = new ArrayList<>();
-    private final Object2CharMap<String> lineToChar = new Object2CharOpenHashMap<>();
+    public static final int DEFAULT_MAX_SHARED_TOKENS = 1 << 20;
+
+    private static final ThreadLocal<int[]> WORD_BUF = ThreadLocal.withInitial(() -> new int[4096]);
 
-    private final List<String> charToWord = new ArrayList<>();
-    private final Object2CharMap<String> wordToChar = new Object2CharOpenHashMap<>();
+    private final TokenInterner lineTokens;
+    private final TokenInterner wordTokens;
 
     public CharRepresenter() {
-        charToLine.add("\0");//lets avoid the 0 char
+        this(new TokenTable(1024), new TokenTable(1024));
+    }
+
+    private CharRepresenter(TokenInterner lineTokens, TokenInterner wordTokens) {
+        this.lineTokens = lineTokens;
+        this.wordTokens = wordTokens;
+        lineTokens.add("\0");//lets avoid the 0 token
 
         //keep ascii chars as their own values
         for (char i = 0; i < 0x80; i++) {
-            charToWord.add(Character.valueOf(i).toString());
+            wordTokens.add(Character.valueOf(i).toString());
         }
     }
 
-    public String getWordForChar(char ch) {
-        return charToWord.get(ch);
+    /**
+     * Create a thread safe {@link CharRepresenter}, which may be shared
+     * by all files of a run, including those processed in parallel.
+     *
+     * @return The new {@link CharRepresenter}.
+     */
+    public static CharRepresenter concurrent() {
+        return new CharRepresenter(new ConcurrentTokenTable(), new ConcurrentTokenTable());
+    }
+
+    /**
+     * Create a supplier of a {@link #concurrent()} {@link CharRepresenter} to share across a run.
+     * <p>
+     * A representer retains every line and word it has seen. Once the current one has more than
+     * {@code maxTokens} line or word tokens, the next call replaces it with a new one. Callers keep
+     * the representer they were given, so the old one is released once the files using it are done.
+     *
+     * @param maxTokens The number of line or word tokens to replace the representer after.
+     * @return The supplier.
+     */
+    public static Supplier<CharRepresenter> concurrentShared(int maxTokens) {
+        if (maxTokens <= 0) throw new IllegalArgumentException("Max tokens must be positive, got: " + maxTokens);
+
+        AtomicReference<CharRepresenter> current = new AtomicReference<>(concurrent());
+        return () -> {
+            CharRepresenter rep = current.get();
+            if (rep.getMaxLineToken() <= maxTokens && rep.getMaxWordToken() <= maxTokens) {
+                return rep;
+            }
+            CharRepresenter next = concurrent();
+            return current.compareAndSet(rep, next) ? next : current.get();
+        };
+    }
+
+    public String getWordForToken(int token) {
+        return wordTokens.get(token);
+    }
+
+    public String getLineForToken(int token) {
+        return lineTokens.get(token);
     }
 
-    public char addLine(String line) {
-        return lineToChar.computeCharIfAbsent(line, e -> {
-            charToLine.add(line);
-            return (char) (charToLine.size() - 1);
-        });
+    public int addLine(String line) {
+        return lineTokens.add(line);
     }
 
-    public char addWord(String word) {
-        if (word.length() == 1 && word.charAt(0) <= 0x80) {
+    public int addWord(String word) {
+        if (word.length() == 1 && word.charAt(0) < 0x80) {
             return word.charAt(0);
         }
 
-        return wordToChar.computeCharIfAbsent(word, e -> {
-            charToWord.add(word);
-            return (char) (charToWord.size() - 1);
-        });
+        return wordTokens.add(word);
     }
 
-    private char[] buf = new char[4096];
-
-    public String wordsToChars(String line) {
+    public int[] wordsToTokens(String line) {
+        // A line never has more words than chars.
+        int[] buf = WORD_BUF.get();
+        if (buf.length < line.length()) {
+            buf = new int[Integer.highestOneBit(line.length()) << 1];
+            WORD_BUF.set(buf);
+        }
         int b = 0;
 
         for (int i = 0, len; i < line.length(); i += len) {
@@ -72,29 +117,27 @@ public class CharRepresenter {
                     len++;
                 }
             }
-            String word = line.substring(i, i + len);
-            if (b >= buf.length) {
-                buf = Arrays.copyOf(buf, buf.length * 2);
-            }
-            buf[b++] = addWord(word);
+            // Look up the word by its range of the line, only new words are copied out.
+            buf[b++] = len == 1 && c < 0x80 ? c : wordTokens.add(line, i, i + len, HashedLines.hash(line, i, i + len));
         }
-        return new String(buf, 0, b);
+        return Arrays.copyOf(buf, b);
     }
 
-    public String linesToChars(List<String> lines) {
-        char[] buf = new char[lines.size()];
+    public int[] linesToTokens(List<String> lines) {
+        int[] tokens = new int[lines.size()];
+        long[] hashes = HashedLines.hashes(lines);
         for (int i = 0; i < lines.size(); i++) {
-            buf[i] = addLine(lines.get(i));
+            tokens[i] = lineTokens.add(lines.get(i), hashes[i]);
         }
-        return new String(buf);
+        return tokens;
     }
 
-    public int getMaxLineChar() {
-        return charToLine.size();
+    public int getMaxLineToken() {
+        return lineTokens.size();
     }
 
-    public int getMaxWordChar() {
-        return charToWord.size();
+    public int getMaxWordToken() {
+        return wordTokens.size();
     }
 
 }
@@ -0,0 +1,174 @@
+package io.codechicken.diffpatch.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe {@link TokenInterner}, intended to be shared by every file of a diff or patch run.
+ * <p>
+ * Strings are distributed over independently locked open addressing stripes by the high bits
+ * of their hash, so threads interning different Strings rarely contend. Tokens are allocated
+ * from a single counter, and are therefore dense across all stripes.
+ * <p>
+ * A token returned by {@link #add} may be resolved by {@link #get(int)} on the same thread,
+ * or on any thread which obtained it from this table.
+ * <p>
+ * Every String added is retained for the life of the table, see {@link CharRepresenter#concurrentShared(int)}
+ * for replacing tables as they fill.
+ */
+public class ConcurrentTokenTable implements TokenInterner {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+    private final AtomicInteger nextToken = new AtomicInteger();
+
+    // token -> String, in lazily allocated pages of 1 << PAGE_BITS tokens.
+    // Copied on write, under this table's monitor, so readers never lock.
+    private volatile String[][] pages = new String[0][];
+
+    public ConcurrentTokenTable() {
+        this(1024);
+    }
+
+    public ConcurrentTokenTable(int expected) {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(expected >> STRIPE_BITS);
+        }
+    }
+
+    @Override
+    public int add(CharSequence str, int start, int end, long hash) {
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            int slot = stripe.slot(str, start, end, hash);
+            int token = stripe.tokens[slot];
+            if (token != Stripe.EMPTY) {
+                return token;
+            }
+
+            token = nextToken.getAndIncrement();
+            if (token < 0) throw new IllegalStateException("Token space exhausted.");
+            String s = str.subSequence(start, end).toString();
+            page(token >>> PAGE_BITS)[token & PAGE_MASK] = s;
+            stripe.insert(slot, s, hash, token);
+            return token;
+        }
+    }
+
+    @Override
+    public int find(String str) {
+        long hash = HashedLines.hash(str);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            return stripe.tokens[stripe.slot(str, 0, str.length(), hash)];
+        }
+    }
+
+    @Override
+    public String get(int token) {
+        String[][] pages = this.pages;
+        String[] page = token < 0 || token >>> PAGE_BITS >= pages.length ? null : pages[token >>> PAGE_BITS];
+        String str = page != null ? page[token & PAGE_MASK] : null;
+        if (str == null) throw new IndexOutOfBoundsException("Token " + token + " out of range [0, " + size() + ")");
+
+        return str;
+    }
+
+    @Override
+    public int size() {
+        return nextToken.get();
+    }
+
+    // The number of page slots allocated, for testing.
+    int pageSlots() {
+        return pages.length;
+    }
+
+    private String[] page(int index) {
+        String[][] pages = this.pages;
+        if (index < pages.length && pages[index] != null) {
+            return pages[index];
+        }
+
+        synchronized (this) {
+            pages = this.pages;
+            if (index >= pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(index + 1, pages.length * 2));
+            } else if (pages[index] == null) {
+                pages = pages.clone();
+            } else {
+                return pages[index];
+            }
+            pages[index] = new String[1 << PAGE_BITS];
+            this.pages = pages;
+            return pages[index];
+        }
+    }
+
+    // An open addressing table, guarded by its own monitor.
+    private static class Stripe {
+
+        private static final int EMPTY = -1;
+
+        private String[] strings;
+        private long[] hashes;
+        private int[] tokens;
+        private int size;
+        private int mask;
+
+        private Stripe(int expected) {
+            int cap = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+            strings = new String[cap];
+            hashes = new long[cap];
+            tokens = new int[cap];
+            Arrays.fill(tokens, EMPTY);
+            mask = cap - 1;
+        }
+
+        // The slot holding the range, or the free slot it would be inserted into.
+        private int slot(CharSequence str, int start, int end, long hash) {
+            int slot = (int) hash & mask;
+            while (tokens[slot] != EMPTY) {
+                if (hashes[slot] == hash && TokenTable.rangeEquals(strings[slot], str, start, end)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void insert(int slot, String str, long hash, int token) {
+            strings[slot] = str;
+            hashes[slot] = hash;
+            tokens[slot] = token;
+            if (++size * 2 > tokens.length) {
+                rehash(tokens.length * 2);
+            }
+        }
+
+        private void rehash(int cap) {
+            String[] oldStrings = strings;
+            long[] oldHashes = hashes;
+            int[] oldTokens = tokens;
+            strings = new String[cap];
+            hashes = new long[cap];
+            tokens = new int[cap];
+            Arrays.fill(tokens, EMPTY);
+            mask = cap - 1;
+            for (int i = 0; i < oldTokens.length; i++) {
+                if (oldTokens[i] == EMPTY) continue;
+
+                int slot = (int) oldHashes[i] & mask;
+                while (tokens[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                strings[slot] = oldStrings[i];
+                hashes[slot] = oldHashes[i];
+                tokens[slot] = oldTokens[i];
+            }
+        }
+    }
+}
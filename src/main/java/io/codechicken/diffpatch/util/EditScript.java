@@ -0,0 +1,186 @@
+package io.codechicken.diffpatch.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A run length encoded list of line operations between two lists of lines.
+ * <p>
+ * Runs refer to lines by their position in the source lists, {@link Diff} objects are
+ * only created for the lines a caller asks for. Building {@link Patch}es via
+ * {@link #toPatches(int, boolean)} only creates them for the lines of each hunk.
+ */
+public final class EditScript {
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final List<String> lines1;
+    private final List<String> lines2;
+
+    // (length << 2) | op.ordinal(), adjacent runs always differ in op.
+    private final int[] runs;
+    private final int runCount;
+
+    private EditScript(List<String> lines1, List<String> lines2, int[] runs, int runCount) {
+        this.lines1 = lines1;
+        this.lines2 = lines2;
+        this.runs = runs;
+        this.runCount = runCount;
+    }
+
+    /**
+     * Build the edit script for a match between two lists of lines.
+     * <p>
+     * Matched lines which are not equal, such as fuzzy matches, are a delete followed by an insert.
+     *
+     * @param matches The matches, from each line in {@code lines1} to a line in {@code lines2}, or {@code -1}.
+     * @param lines1  The base lines.
+     * @param lines2  The modified lines.
+     * @return The edit script.
+     */
+    public static EditScript fromMatches(int[] matches, List<String> lines1, List<String> lines2) {
+        Builder builder = new Builder();
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i] < 0) {
+                continue;
+            }
+
+            builder.add(Operation.DELETE, i - l);
+            builder.add(Operation.INSERT, matches[i] - r);
+            l = i;
+            r = matches[i];
+            if (!HashedLines.linesEqual(lines1, l, lines2, r)) {
+                builder.add(Operation.DELETE, 1);
+                builder.add(Operation.INSERT, 1);
+            } else {
+                builder.add(Operation.EQUAL, 1);
+            }
+            l++;
+            r++;
+        }
+        builder.add(Operation.DELETE, lines1.size() - l);
+        builder.add(Operation.INSERT, lines2.size() - r);
+        return new EditScript(lines1, lines2, builder.runs, builder.count);
+    }
+
+    //@formatter:off
+    public int getRunCount() { return runCount; }
+    public Operation getOp(int run) { return OPERATIONS[runs[checkRun(run)] & 3]; }
+    public int getLength(int run) { return runs[checkRun(run)] >>> 2; }
+    //@formatter:on
+
+    /**
+     * @return A {@link Diff} for every line.
+     */
+    public List<Diff> toDiffs() {
+        List<Diff> diffs = new ArrayList<>();
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i < runCount; i++) {
+            int len = runs[i] >>> 2;
+            addDiffs(diffs, OPERATIONS[runs[i] & 3], l, r, len);
+            if ((runs[i] & 3) != Operation.INSERT.ordinal()) l += len;
+            if ((runs[i] & 3) != Operation.DELETE.ordinal()) r += len;
+        }
+        return diffs;
+    }
+
+    /**
+     * Build the hunks for this edit script, the same as trimming and splitting
+     * a single {@link Patch} of every line, as {@link io.codechicken.diffpatch.diff.Differ#makePatches(List, int, boolean)} does.
+     *
+     * @param numContextLines The number of context lines for each hunk.
+     * @param collate         If the hunks should be collated.
+     * @return The hunks.
+     */
+    public List<Patch> toPatches(int numContextLines, boolean collate) {
+        int equal = Operation.EQUAL.ordinal();
+        List<Patch> patches = new ArrayList<>();
+        Patch patch = null;
+        boolean split = false;
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i < runCount; i++) {
+            int op = runs[i] & 3;
+            int len = runs[i] >>> 2;
+            if (op == equal) {
+                if (patch != null) {
+                    if (i == runCount - 1 || len <= numContextLines * 2) {
+                        // Trailing context, or too short to split on.
+                        addDiffs(patch.diffs, Operation.EQUAL, l, r, i == runCount - 1 ? Math.min(len, numContextLines) : len);
+                    } else {
+                        addDiffs(patch.diffs, Operation.EQUAL, l, r, numContextLines);
+                        patches.add(patch);
+                        patch = null;
+                        split = true;
+                    }
+                }
+            } else {
+                if (patch == null) {
+                    patch = new Patch();
+                    patch.start1 = l;
+                    patch.start2 = r;
+                    if (i > 0) {
+                        // Leading context, from the previous run.
+                        int lead = Math.min(runs[i - 1] >>> 2, numContextLines);
+                        patch.start1 -= lead;
+                        patch.start2 -= lead;
+                        addDiffs(patch.diffs, Operation.EQUAL, l - lead, r - lead, lead);
+                    }
+                }
+                addDiffs(patch.diffs, OPERATIONS[op], l, r, len);
+            }
+            if (op != Operation.INSERT.ordinal()) l += len;
+            if (op != Operation.DELETE.ordinal()) r += len;
+        }
+        if (patch != null) {
+            patches.add(patch);
+        }
+
+        for (Patch p : patches) {
+            p.recalculateLength();
+            if (!collate) {
+                p.uncollate();
+            }
+        }
+        if (!split && patches.size() == 1 && patches.get(0).length1 == 0) {
+            return Collections.emptyList();
+        }
+        return patches;
+    }
+
+    private void addDiffs(List<Diff> diffs, Operation op, int l, int r, int len) {
+        for (int i = 0; i < len; i++) {
+            diffs.add(new Diff(op, op == Operation.INSERT ? lines2.get(r + i) : lines1.get(l + i)));
+        }
+    }
+
+    private int checkRun(int run) {
+        if (run < 0 || run >= runCount) throw new IndexOutOfBoundsException("Run: " + run + ", Count: " + runCount);
+
+        return run;
+    }
+
+    private static class Builder {
+
+        private int[] runs = new int[16];
+        private int count;
+
+        private void add(Operation op, int len) {
+            if (len == 0) return;
+
+            if (count > 0 && (runs[count - 1] & 3) == op.ordinal()) {
+                runs[count - 1] += len << 2;
+                return;
+            }
+            if (count == runs.length) {
+                runs = Arrays.copyOf(runs, count * 2);
+            }
+            runs[count++] = len << 2 | op.ordinal();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.codechicken.diffpatch.util;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * The gap bookkeeping shared by {@link GapList}, {@link IntGapList} and {@link LongGapList},
+ * over an array of any element type.
+ * <p>
+ * Elements before the gap are stored at their index, elements after it are stored
+ * {@link #gapLength()} further along the array.
+ *
+ * @param <A> The array type.
+ */
+final class GapBuffer<A> {
+
+    private final IntFunction<A> factory;
+    private A array;
+    private int capacity;
+    private int gapStart;
+    private int gapEnd;
+
+    GapBuffer(A array, int length, IntFunction<A> factory) {
+        this.factory = factory;
+        this.array = array;
+        capacity = length;
+        gapStart = gapEnd = length;
+    }
+
+    //@formatter:off
+    A array() { return array; }
+    int gapStart() { return gapStart; }
+    int gapLength() { return gapEnd - gapStart; }
+    int size() { return capacity - (gapEnd - gapStart); }
+    //@formatter:on
+
+    /**
+     * @param index The index of an element.
+     * @return The position of the element in the array.
+     */
+    int physical(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        return index < gapStart ? index : index + gapEnd - gapStart;
+    }
+
+    /**
+     * Remove a range of elements and make room for their replacements.
+     *
+     * @param index       The index of the first element to replace.
+     * @param removeCount The number of elements to remove.
+     * @param insertCount The number of elements which will be inserted.
+     * @return The position in the array to write the inserted elements to.
+     */
+    int replace(int index, int removeCount, int insertCount) {
+        int size = size();
+        if (index < 0 || removeCount < 0 || index + removeCount > size) throw new IndexOutOfBoundsException("Range [" + index + ", " + (index + removeCount) + ") out of bounds for size " + size);
+
+        moveGap(index);
+        clear(gapEnd, gapEnd + removeCount);
+        gapEnd += removeCount;
+        ensureGap(insertCount);
+        int at = gapStart;
+        gapStart += insertCount;
+        return at;
+    }
+
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int n = gapStart - index;
+            System.arraycopy(array, index, array, gapEnd - n, n);
+            clear(index, Math.min(gapStart, gapEnd - n));
+            gapStart -= n;
+            gapEnd -= n;
+        } else if (index > gapStart) {
+            int n = index - gapStart;
+            System.arraycopy(array, gapEnd, array, gapStart, n);
+            clear(Math.max(gapEnd, gapStart + n), gapEnd + n);
+            gapStart += n;
+            gapEnd += n;
+        }
+    }
+
+    private void ensureGap(int n) {
+        if (gapEnd - gapStart >= n) return;
+
+        int after = capacity - gapEnd;
+        int cap = Math.max(capacity * 3 / 2, size() + n + 16);
+        A grown = factory.apply(cap);
+        System.arraycopy(array, 0, grown, 0, gapStart);
+        System.arraycopy(array, gapEnd, grown, cap - after, after);
+        array = grown;
+        capacity = cap;
+        gapEnd = cap - after;
+    }
+
+    // Only references need clearing, so the gap doesn't keep removed elements reachable.
+    private void clear(int from, int to) {
+        if (array instanceof Object[]) {
+            Arrays.fill((Object[]) array, from, to, null);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.codechicken.diffpatch.util;
+
+import java.util.*;
+
+/**
+ * A {@link List} backed by a gap buffer, making insertions and removals near the
+ * previous edit cheap, regardless of the size of the list.
+ * <p>
+ * Editing moves the gap to the edited index, costing the distance from the last edit.
+ * A series of edits in increasing order, such as applying hunks of a patch,
+ * therefore costs the size of the list once, plus the size of each edit.
+ *
+ * @param <E> The element type.
+ */
+public class GapList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final GapBuffer<Object[]> buffer;
+
+    public GapList(Collection<? extends E> elements) {
+        Object[] array = elements.toArray();
+        buffer = new GapBuffer<>(array, array.length, Object[]::new);
+    }
+
+    @Override
+    @SuppressWarnings ("unchecked")
+    public E get(int index) {
+        return (E) buffer.array()[buffer.physical(index)];
+    }
+
+    @Override
+    @SuppressWarnings ("unchecked")
+    public E set(int index, E element) {
+        Object[] elements = buffer.array();
+        int i = buffer.physical(index);
+        E prev = (E) elements[i];
+        elements[i] = element;
+        return prev;
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    @Override
+    public void add(int index, E element) {
+        replace(index, 0, Collections.singletonList(element));
+    }
+
+    @Override
+    public E remove(int index) {
+        E prev = get(index);
+        replace(index, 1, Collections.emptyList());
+        return prev;
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c) {
+        replace(index, 0, c);
+        return !c.isEmpty();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        replace(fromIndex, toIndex - fromIndex, Collections.emptyList());
+    }
+
+    /**
+     * Replace a range of elements.
+     *
+     * @param index       The index of the first element to replace.
+     * @param removeCount The number of elements to remove.
+     * @param insert      The elements to insert in their place.
+     */
+    public void replace(int index, int removeCount, Collection<? extends E> insert) {
+        int at = buffer.replace(index, removeCount, insert.size());
+        Object[] elements = buffer.array();
+        for (E e : insert) {
+            elements[at++] = e;
+        }
+        modCount++;
+    }
+}
@@ -0,0 +1,113 @@
+package io.codechicken.diffpatch.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of lines, carrying a precomputed 64-bit hash for each line.
+ * <p>
+ * Returned by {@link Input} when reading files, so that interning and line
+ * comparisons may reject mismatches by hash without comparing characters.
+ */
+public final class HashedLines extends AbstractList<String> implements RandomAccess {
+
+    private final String[] lines;
+    private final long[] hashes;
+
+    public HashedLines(List<String> lines) {
+        this.lines = lines.toArray(new String[0]);
+        hashes = new long[this.lines.length];
+        for (int i = 0; i < this.lines.length; i++) {
+            hashes[i] = hash(this.lines[i]);
+        }
+    }
+
+    @Override
+    public String get(int index) {
+        return lines[index];
+    }
+
+    @Override
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * Get the hash of the line at the given index.
+     *
+     * @param index The index.
+     * @return The hash, as computed by {@link #hash(CharSequence)}.
+     */
+    public long getHash(int index) {
+        if (index < 0 || index >= lines.length) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + lines.length);
+
+        return hashes[index];
+    }
+
+    /**
+     * Get the hashes of all lines in the given list.
+     * <p>
+     * The returned array must not be modified, it may be the backing array of a {@link HashedLines}.
+     *
+     * @param lines The lines.
+     * @return The hashes.
+     */
+    public static long[] hashes(List<String> lines) {
+        if (lines instanceof HashedLines) {
+            return ((HashedLines) lines).hashes;
+        }
+
+        long[] hashes = new long[lines.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash(lines.get(i));
+        }
+        return hashes;
+    }
+
+    /**
+     * Compare two lines for equality, rejecting by hash where both lists are {@link HashedLines}.
+     *
+     * @param lines1 The first list.
+     * @param i      The index in the first list.
+     * @param lines2 The second list.
+     * @param j      The index in the second list.
+     * @return If the lines are equal.
+     */
+    public static boolean linesEqual(List<String> lines1, int i, List<String> lines2, int j) {
+        if (lines1 instanceof HashedLines && lines2 instanceof HashedLines) {
+            if (((HashedLines) lines1).hashes[i] != ((HashedLines) lines2).hashes[j]) {
+                return false;
+            }
+        }
+        return lines1.get(i).equals(lines2.get(j));
+    }
+
+    public static long hash(CharSequence str) {
+        return hash(str, 0, str.length());
+    }
+
+    /**
+     * Compute the 64-bit hash of a range of characters.
+     *
+     * @param str   The characters.
+     * @param start The start index, inclusive.
+     * @param end   The end index, exclusive.
+     * @return The hash.
+     */
+    public static long hash(CharSequence str, int start, int end) {
+        // FNV-1a over chars, finished with the Murmur3 64-bit finalizer so the low bits are usable as a table index.
+        long h = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++) {
+            h ^= str.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= end - start;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
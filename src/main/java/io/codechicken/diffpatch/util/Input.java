@@ -106,7 +106,7 @@ public abstract class Input {
 
         public List<String> readLines() throws IOException {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(), StandardCharsets.UTF_8))) {
-                return FastStream.of(reader.lines()).toList();
+                return new HashedLines(FastStream.of(reader.lines()).toList());
             }
         }
 
@@ -135,7 +135,7 @@ public abstract class Input {
             @Override
             public List<String> readLines() throws IOException {
                 try (BufferedReader reader = new BufferedReader(new StringReader(str))) {
-                    return FastStream.of(reader.lines()).toList();
+                    return new HashedLines(FastStream.of(reader.lines()).toList());
                 }
             }
 
@@ -288,7 +288,7 @@ public abstract class Input {
          */
         public List<String> readLines(String key) throws IOException {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(read(key)), StandardCharsets.UTF_8))) {
-                return FastStream.of(reader.lines()).toList();
+                return new HashedLines(FastStream.of(reader.lines()).toList());
             }
         }
 
@@ -0,0 +1,112 @@
+package io.codechicken.diffpatch.util;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntList;
+
+import java.util.RandomAccess;
+
+/**
+ * A {@link GapList} of primitive ints, with token sequence search.
+ */
+public class IntGapList extends AbstractIntList implements RandomAccess {
+
+    private final GapBuffer<int[]> buffer;
+
+    public IntGapList(int[] elements) {
+        buffer = new GapBuffer<>(elements.clone(), elements.length, int[]::new);
+    }
+
+    @Override
+    public int getInt(int index) {
+        return buffer.array()[buffer.physical(index)];
+    }
+
+    @Override
+    public int set(int index, int k) {
+        int[] elements = buffer.array();
+        int i = buffer.physical(index);
+        int prev = elements[i];
+        elements[i] = k;
+        return prev;
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * Replace a range of elements.
+     *
+     * @param index       The index of the first element to replace.
+     * @param removeCount The number of elements to remove.
+     * @param insert      The elements to insert in their place.
+     */
+    public void replace(int index, int removeCount, int[] insert) {
+        int at = buffer.replace(index, removeCount, insert.length);
+        System.arraycopy(insert, 0, buffer.array(), at, insert.length);
+    }
+
+    /**
+     * Equivalent of {@link Utils#indexOf(int[], int[], int)} over this list.
+     *
+     * @param target    The tokens to search for.
+     * @param fromIndex The index to start searching from.
+     * @return The index of the first occurrence of {@code target} at or after {@code fromIndex}, otherwise {@code -1}.
+     */
+    public int indexOf(int[] target, int fromIndex) {
+        int size = size();
+        int max = size - target.length;
+        if (fromIndex >= size) {
+            return target.length == 0 ? size : -1;
+        }
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        for (int i = fromIndex; i <= max; i++) {
+            if (regionMatches(i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Equivalent of {@link Utils#lastIndexOf(int[], int[], int)} over this list.
+     *
+     * @param target    The tokens to search for.
+     * @param fromIndex The index to start searching backwards from.
+     * @return The index of the last occurrence of {@code target} at or before {@code fromIndex}, otherwise {@code -1}.
+     */
+    public int lastIndexOf(int[] target, int fromIndex) {
+        int max = size() - target.length;
+        if (fromIndex > max) {
+            fromIndex = max;
+        }
+        for (int i = fromIndex; i >= 0; i--) {
+            if (regionMatches(i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index  The index to compare at.
+     * @param target The tokens to compare.
+     * @return If {@code target} occurs at {@code index}.
+     */
+    public boolean regionMatches(int index, int[] target) {
+        if (index < 0 || index + target.length > size()) return false;
+
+        int[] elements = buffer.array();
+        int gapStart = buffer.gapStart();
+        int gap = buffer.gapLength();
+        for (int j = 0; j < target.length; j++) {
+            int i = index + j;
+            if (elements[i < gapStart ? i : i + gap] != target[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+package io.codechicken.diffpatch.util;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * A token list with a rolling hash index of every run of {@code k} tokens, for finding
+ * token sequences near a location without scanning the list.
+ * <p>
+ * The index is built lazily, and is not rebuilt for each {@link #replace}. Instead, replacements
+ * are logged, indexed positions are mapped through the log, and the regions they touched are
+ * scanned directly. Once the log grows past {@link #MAX_PENDING} replacements the index is rebuilt.
+ * <p>
+ * Results are the same as {@link IntGapList#indexOf} and {@link IntGapList#lastIndexOf},
+ * targets shorter than {@code k} tokens are searched for with them.
+ */
+public class KGramIndex {
+
+    public static final int DEFAULT_K = 4;
+    public static final int MAX_PENDING = 64;
+
+    private static final long BASE = 0x9E3779B97F4A7C15L;
+
+    private final IntGapList text;
+    private final int k;
+    // BASE^(k - 1)
+    private final long outFactor;
+
+    // k-gram hash -> positions when the index was built, ascending
+    private final Long2ObjectOpenHashMap<IntArrayList> postings = new Long2ObjectOpenHashMap<>();
+    private boolean built;
+    private final SpliceLog log;
+
+    public KGramIndex(int[] tokens) {
+        this(tokens, DEFAULT_K);
+    }
+
+    public KGramIndex(int[] tokens, int k) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1, got: " + k);
+
+        text = new IntGapList(tokens);
+        this.k = k;
+        log = new SpliceLog(k);
+        long f = 1;
+        for (int i = 1; i < k; i++) {
+            f *= BASE;
+        }
+        outFactor = f;
+    }
+
+    /**
+     * Replace a range of tokens, see {@link IntGapList#replace}.
+     *
+     * @param index       The index of the first token to replace.
+     * @param removeCount The number of tokens to remove.
+     * @param insert      The tokens to insert in their place.
+     */
+    public void replace(int index, int removeCount, int[] insert) {
+        text.replace(index, removeCount, insert);
+        if (!built) return;
+
+        log.add(index, removeCount, insert.length);
+    }
+
+    /**
+     * @param target    The tokens to search for.
+     * @param fromIndex The index to start searching from.
+     * @return The index of the first occurrence of {@code target} at or after {@code fromIndex}, otherwise {@code -1}.
+     * @see IntGapList#indexOf(int[], int)
+     */
+    public int indexOf(int[] target, int fromIndex) {
+        if (target.length < k || fromIndex >= text.size()) {
+            return text.indexOf(target, fromIndex);
+        }
+        fromIndex = Math.max(fromIndex, 0);
+        ensureBuilt();
+
+        int best = -1;
+        IntArrayList positions = postings.get(hash(target));
+        if (positions != null) {
+            for (int i = 0; i < positions.size(); i++) {
+                int pos = log.map(positions.getInt(i));
+                if (pos >= fromIndex && (best < 0 || pos < best) && text.regionMatches(pos, target)) {
+                    best = pos;
+                }
+            }
+        }
+        for (LineRange r : log.getDirty()) {
+            int end = best < 0 ? r.getEnd() : Math.min(r.getEnd(), best);
+            for (int i = Math.max(r.getStart(), fromIndex); i < end; i++) {
+                if (text.regionMatches(i, target)) {
+                    best = i;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param target    The tokens to search for.
+     * @param fromIndex The index to start searching backwards from.
+     * @return The index of the last occurrence of {@code target} at or before {@code fromIndex}, otherwise {@code -1}.
+     * @see IntGapList#lastIndexOf(int[], int)
+     */
+    public int lastIndexOf(int[] target, int fromIndex) {
+        if (target.length < k) {
+            return text.lastIndexOf(target, fromIndex);
+        }
+        fromIndex = Math.min(fromIndex, text.size() - target.length);
+        if (fromIndex < 0) return -1;
+        ensureBuilt();
+
+        int best = -1;
+        IntArrayList positions = postings.get(hash(target));
+        if (positions != null) {
+            for (int i = 0; i < positions.size(); i++) {
+                int pos = log.map(positions.getInt(i));
+                if (pos <= fromIndex && pos > best && text.regionMatches(pos, target)) {
+                    best = pos;
+                }
+            }
+        }
+        for (LineRange r : log.getDirty()) {
+            int start = Math.max(r.getStart(), best + 1);
+            for (int i = Math.min(r.getLast(), fromIndex); i >= start; i--) {
+                if (text.regionMatches(i, target)) {
+                    best = i;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param target The tokens to search for, at least {@code k} long.
+     * @return {@code false} if {@code target} is certainly absent, without scanning.
+     */
+    public boolean mayContain(int[] target) {
+        if (target.length < k) return true;
+
+        ensureBuilt();
+        return !log.getDirty().isEmpty() || postings.containsKey(hash(target));
+    }
+
+    //@formatter:off
+    public IntGapList getText() { return text; }
+    public int getK() { return k; }
+    //@formatter:on
+
+    private void ensureBuilt() {
+        if (built && log.size() <= MAX_PENDING) return;
+
+        postings.clear();
+        log.clear();
+        built = true;
+        int size = text.size();
+        if (size < k) return;
+
+        long h = 0;
+        for (int i = 0; i < size; i++) {
+            if (i >= k) {
+                h -= text.getInt(i - k) * outFactor;
+            }
+            h = h * BASE + text.getInt(i);
+            if (i >= k - 1) {
+                postings.computeIfAbsent(h, e -> new IntArrayList()).add(i - k + 1);
+            }
+        }
+    }
+
+    private long hash(int[] target) {
+        long h = 0;
+        for (int i = 0; i < k; i++) {
+            h = h * BASE + target[i];
+        }
+        return h;
+    }
+}
@@ -0,0 +1,103 @@
+package io.codechicken.diffpatch.util;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * An inverted index from tokens to the lines of a token list containing them, such as word mode lines.
+ * <p>
+ * The index refers to a live list, which may be changed as long as each replacement is
+ * reported via {@link #replace}. Like {@link KGramIndex}, replacements are logged rather than
+ * rebuilding the index, which is rebuilt once there are more than {@link #MAX_PENDING}.
+ */
+public class LineTokenIndex {
+
+    public static final int MAX_PENDING = 64;
+
+    private final List<int[]> lines;
+    // token -> lines containing it when the index was built, ascending
+    private final Int2ObjectOpenHashMap<IntArrayList> postings = new Int2ObjectOpenHashMap<>();
+    private boolean built;
+    private final SpliceLog log = new SpliceLog(1);
+
+    public LineTokenIndex(List<int[]> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Report that a range of lines in the list was replaced.
+     *
+     * @param index       The index of the first line replaced.
+     * @param removeCount The number of lines removed.
+     * @param insertCount The number of lines inserted in their place.
+     */
+    public void replace(int index, int removeCount, int insertCount) {
+        if (built) {
+            log.add(index, removeCount, insertCount);
+        }
+    }
+
+    /**
+     * @param token The token.
+     * @return The number of lines containing the token when the index was last built.
+     */
+    public int frequency(int token) {
+        ensureBuilt();
+        IntArrayList positions = postings.get(token);
+        return positions != null ? positions.size() : 0;
+    }
+
+    /**
+     * Visit each line containing a token.
+     * <p>
+     * Lines are visited in no particular order, and may be visited more than once.
+     *
+     * @param token  The token.
+     * @param action Called with the index of each line.
+     */
+    public void forEachLine(int token, IntConsumer action) {
+        ensureBuilt();
+        IntArrayList positions = postings.get(token);
+        if (positions != null) {
+            for (int i = 0; i < positions.size(); i++) {
+                int pos = log.map(positions.getInt(i));
+                if (pos >= 0) {
+                    action.accept(pos);
+                }
+            }
+        }
+        for (LineRange r : log.getDirty()) {
+            for (int l = r.getStart(); l < r.getEnd(); l++) {
+                if (contains(lines.get(l), token)) {
+                    action.accept(l);
+                }
+            }
+        }
+    }
+
+    private void ensureBuilt() {
+        if (built && log.size() <= MAX_PENDING) return;
+
+        postings.clear();
+        log.clear();
+        built = true;
+        for (int l = 0; l < lines.size(); l++) {
+            for (int token : lines.get(l)) {
+                IntArrayList positions = postings.computeIfAbsent(token, e -> new IntArrayList());
+                if (positions.isEmpty() || positions.getInt(positions.size() - 1) != l) {
+                    positions.add(l);
+                }
+            }
+        }
+    }
+
+    private static boolean contains(int[] line, int token) {
+        for (int t : line) {
+            if (t == token) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package io.codechicken.diffpatch.util;
+
+import it.unimi.dsi.fastutil.longs.AbstractLongList;
+
+import java.util.RandomAccess;
+
+/**
+ * A {@link GapList} of primitive longs.
+ */
+public class LongGapList extends AbstractLongList implements RandomAccess {
+
+    private final GapBuffer<long[]> buffer;
+
+    public LongGapList(long[] elements) {
+        buffer = new GapBuffer<>(elements.clone(), elements.length, long[]::new);
+    }
+
+    @Override
+    public long getLong(int index) {
+        return buffer.array()[buffer.physical(index)];
+    }
+
+    @Override
+    public long set(int index, long k) {
+        long[] elements = buffer.array();
+        int i = buffer.physical(index);
+        long prev = elements[i];
+        elements[i] = k;
+        return prev;
+    }
+
+    @Override
+    public int size() {
+        return buffer.size();
+    }
+
+    /**
+     * Replace a range of elements.
+     *
+     * @param index       The index of the first element to replace.
+     * @param removeCount The number of elements to remove.
+     * @param insert      The elements to insert in their place.
+     */
+    public void replace(int index, int removeCount, long[] insert) {
+        int at = buffer.replace(index, removeCount, insert.length);
+        System.arraycopy(insert, 0, buffer.array(), at, insert.length);
+    }
+}
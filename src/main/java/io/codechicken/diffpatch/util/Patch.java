@@ -167,9 +167,9 @@ public class Patch {
     public String getHeader() { return String.format("@@ -%d,%d +%d,%d @@", start1 + 1, length1, start2 + 1, length2); }
     public String getAutoHeader() { return String.format("@@ -%d,%d +_,%d @@", start1 + 1, length1, length2); }
     public List<String> getContextLines() { return getContextLines(Function.identity()); }
-    public List<String> getContextLines(Function<String, String> f) { return FastStream.of(diffs).filter(e -> e.op != Operation.INSERT).map(e -> f.apply(e.text)).toList(); }
+    public <T> List<T> getContextLines(Function<String, T> f) { return FastStream.of(diffs).filter(e -> e.op != Operation.INSERT).map(e -> f.apply(e.text)).toList(); }
     public List<String> getPatchedLines() { return getPatchedLines(Function.identity()); }
-    public List<String> getPatchedLines(Function<String, String> f) { return FastStream.of(diffs).filter(e -> e.op != Operation.DELETE).map(e -> f.apply(e.text)).toList(); }
+    public <T> List<T> getPatchedLines(Function<String, T> f) { return FastStream.of(diffs).filter(e -> e.op != Operation.DELETE).map(e -> f.apply(e.text)).toList(); }
     public LineRange getRange1() { return LineRange.fromStartLen(start1, length1); }
     public LineRange getRange2() { return LineRange.fromStartLen(start2, length2); }
     public LineRange getTrimmedRange1() { return trimRange(getRange1()); }
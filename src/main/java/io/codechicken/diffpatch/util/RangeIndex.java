@@ -0,0 +1,235 @@
+package io.codechicken.diffpatch.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An index of line ranges, each with a line delta, such as the ranges of applied patches.
+ * <p>
+ * Ranges are kept sorted by start, ties in the order they were added. A running maximum of
+ * range ends and a Fenwick tree of deltas, both in that order, answer the queries used while
+ * patching in {@code O(log n)} where the ranges do not overlap.
+ * <p>
+ * Adding a range in front of others, or shifting ranges, updates the index after that point.
+ *
+ * @param <T> The owner of each range.
+ */
+public final class RangeIndex<T> {
+
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] deltas = new int[16];
+    private int[] seqs = new int[16];
+    private Object[] owners = new Object[16];
+    // maximum of ends[0..i]
+    private int[] maxEnds = new int[16];
+    // Fenwick tree of deltas, 1 based
+    private int[] tree = new int[17];
+    private int size;
+    private int nextSeq;
+
+    /**
+     * Add a range.
+     *
+     * @param owner The owner of the range.
+     * @param range The range.
+     * @param delta The line delta of the range.
+     */
+    public void add(T owner, LineRange range, int delta) {
+        if (size == starts.length) {
+            grow(size * 2);
+        }
+        int i = upperBound(range.getStart());
+        int n = size - i;
+        System.arraycopy(starts, i, starts, i + 1, n);
+        System.arraycopy(ends, i, ends, i + 1, n);
+        System.arraycopy(deltas, i, deltas, i + 1, n);
+        System.arraycopy(seqs, i, seqs, i + 1, n);
+        System.arraycopy(owners, i, owners, i + 1, n);
+        starts[i] = range.getStart();
+        ends[i] = range.getEnd();
+        deltas[i] = delta;
+        seqs[i] = nextSeq++;
+        owners[i] = owner;
+        size++;
+
+        if (i == size - 1) {
+            maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+            appendTree(i);
+        } else {
+            updateMaxEnds(i);
+            buildTree();
+        }
+    }
+
+    /**
+     * @param loc The line.
+     * @return The sum of deltas of all ranges ending at or before {@code loc}.
+     */
+    public int deltaBefore(int loc) {
+        // Every range before i ends at or before loc, no range from j starts at or before loc.
+        int i = countMaxEndsAtMost(loc);
+        int j = upperBound(loc);
+        int sum = prefixSum(i);
+        for (int k = i; k < j; k++) {
+            if (ends[k] <= loc) {
+                sum += deltas[k];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param range The range.
+     * @return If any range contains the given range.
+     */
+    public boolean anyContains(LineRange range) {
+        int j = upperBound(range.getStart());
+        return j > 0 && maxEnds[j - 1] >= range.getEnd();
+    }
+
+    /**
+     * Shift all ranges starting after a line.
+     *
+     * @param loc     The line.
+     * @param delta   The amount to shift by.
+     * @param onShift Called with the owner of each range shifted.
+     */
+    @SuppressWarnings ("unchecked")
+    public void shiftAfter(int loc, int delta, Consumer<T> onShift) {
+        int i = upperBound(loc);
+        if (i == size) return;
+
+        for (int k = i; k < size; k++) {
+            starts[k] += delta;
+            ends[k] += delta;
+            onShift.accept((T) owners[k]);
+        }
+        if (i > 0 && compare(i - 1, i) > 0) {
+            // A negative shift moved ranges at or before others.
+            sort();
+            updateMaxEnds(0);
+            buildTree();
+        } else {
+            updateMaxEnds(i);
+        }
+    }
+
+    /**
+     * The parts of a range not covered by any range in this index,
+     * the same as {@link LineRange#except(List)} with every range.
+     *
+     * @param range The range.
+     * @return The uncovered parts.
+     */
+    public List<LineRange> except(LineRange range) {
+        List<LineRange> except = new ArrayList<>(size);
+        for (int k = 0; k < size; k++) {
+            except.add(new LineRange(starts[k], ends[k]));
+        }
+        return range.except(except, true);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The number of ranges starting at or before loc.
+    private int upperBound(int loc) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= loc) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int countMaxEndsAtMost(int loc) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (maxEnds[mid] <= loc) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compare(int a, int b) {
+        int c = Integer.compare(starts[a], starts[b]);
+        return c != 0 ? c : Integer.compare(seqs[a], seqs[b]);
+    }
+
+    // Insertion sort, ranges are only out of order around a shift.
+    private void sort() {
+        for (int i = 1; i < size; i++) {
+            for (int k = i; k > 0 && compare(k - 1, k) > 0; k--) {
+                swap(starts, k);
+                swap(ends, k);
+                swap(deltas, k);
+                swap(seqs, k);
+                Object o = owners[k];
+                owners[k] = owners[k - 1];
+                owners[k - 1] = o;
+            }
+        }
+    }
+
+    private void updateMaxEnds(int from) {
+        for (int k = from; k < size; k++) {
+            maxEnds[k] = k == 0 ? ends[k] : Math.max(maxEnds[k - 1], ends[k]);
+        }
+    }
+
+    private void appendTree(int i) {
+        // node i + 1 covers (i + 1 - lowbit, i + 1]
+        int node = i + 1;
+        tree[node] = deltas[i] + prefixSum(i) - prefixSum(node - (node & -node));
+    }
+
+    private void buildTree() {
+        Arrays.fill(tree, 0, size + 1, 0);
+        for (int node = 1; node <= size; node++) {
+            tree[node] += deltas[node - 1];
+            int parent = node + (node & -node);
+            if (parent <= size) {
+                tree[parent] += tree[node];
+            }
+        }
+    }
+
+    // The sum of the first n deltas.
+    private int prefixSum(int n) {
+        int sum = 0;
+        for (int node = n; node > 0; node -= node & -node) {
+            sum += tree[node];
+        }
+        return sum;
+    }
+
+    private void grow(int cap) {
+        starts = Arrays.copyOf(starts, cap);
+        ends = Arrays.copyOf(ends, cap);
+        deltas = Arrays.copyOf(deltas, cap);
+        seqs = Arrays.copyOf(seqs, cap);
+        owners = Arrays.copyOf(owners, cap);
+        maxEnds = Arrays.copyOf(maxEnds, cap);
+        tree = Arrays.copyOf(tree, cap + 1);
+    }
+
+    private static void swap(int[] arr, int k) {
+        int t = arr[k];
+        arr[k] = arr[k - 1];
+        arr[k - 1] = t;
+    }
+}
@@ -0,0 +1,90 @@
+package io.codechicken.diffpatch.util;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The replacements made to a list since an index of it was built, used to keep
+ * the index usable without rebuilding it for each replacement.
+ * <p>
+ * Indexed entries span {@code span} elements from their position. Entries untouched by
+ * any replacement are {@link #map mapped} to their current position, the positions of all
+ * other entries are within the {@link #getDirty() dirty} ranges, which must be scanned.
+ */
+final class SpliceLog {
+
+    private final int span;
+    // (index, removeCount, insertCount) of each replacement
+    private final IntArrayList log = new IntArrayList();
+    // ascending and disjoint
+    private List<LineRange> dirty = new ArrayList<>();
+
+    SpliceLog(int span) {
+        this.span = span;
+    }
+
+    void add(int index, int removeCount, int insertCount) {
+        log.add(index);
+        log.add(removeCount);
+        log.add(insertCount);
+
+        // Entries starting in [index - span + 1, index + insertCount) now cover inserted elements or a seam.
+        int start = Math.max(0, index - span + 1);
+        int end = index + insertCount;
+        List<LineRange> before = new ArrayList<>();
+        List<LineRange> after = new ArrayList<>();
+        for (LineRange r : dirty) {
+            int rStart = mapBound(r.getStart(), index, removeCount, insertCount);
+            int rEnd = mapBound(r.getEnd(), index, removeCount, insertCount);
+            if (rEnd < start) {
+                before.add(r);
+            } else if (rStart > end) {
+                after.add(new LineRange(rStart, rEnd));
+            } else {
+                start = Math.min(start, rStart);
+                end = Math.max(end, rEnd);
+            }
+        }
+        if (end > start) {
+            before.add(new LineRange(start, end));
+        }
+        before.addAll(after);
+        dirty = before;
+    }
+
+    /**
+     * @param pos The position of an entry when the index was built.
+     * @return The current position of the entry, or {@code -1} if it was changed.
+     */
+    int map(int pos) {
+        for (int i = 0; i < log.size(); i += 3) {
+            int index = log.getInt(i);
+            int removed = log.getInt(i + 1);
+            if (pos >= index + removed) {
+                pos += log.getInt(i + 2) - removed;
+            } else if (pos + span > index) {
+                return -1;
+            }
+        }
+        return pos;
+    }
+
+    void clear() {
+        log.clear();
+        dirty = new ArrayList<>();
+    }
+
+    //@formatter:off
+    int size() { return log.size() / 3; }
+    List<LineRange> getDirty() { return dirty; }
+    //@formatter:on
+
+    // Bounds inside the replaced range are mapped to its end.
+    private static int mapBound(int pos, int index, int removeCount, int insertCount) {
+        if (pos <= index) return pos;
+
+        return pos >= index + removeCount ? pos + insertCount - removeCount : index + insertCount;
+    }
+}
@@ -0,0 +1,65 @@
+package io.codechicken.diffpatch.util;
+
+/**
+ * Maps Strings to densely allocated int tokens, and tokens back to their String.
+ *
+ * @see TokenTable
+ * @see ConcurrentTokenTable
+ */
+public interface TokenInterner {
+
+    /**
+     * Get the token for the given String, allocating a new one if it does not exist.
+     *
+     * @param str The String.
+     * @return The token.
+     */
+    default int add(String str) {
+        return add(str, HashedLines.hash(str));
+    }
+
+    /**
+     * Get the token for the given String, allocating a new one if it does not exist.
+     *
+     * @param str  The String.
+     * @param hash The hash of the String, as computed by {@link HashedLines#hash(CharSequence)}.
+     * @return The token.
+     */
+    default int add(String str, long hash) {
+        return add(str, 0, str.length(), hash);
+    }
+
+    /**
+     * Get the token for a range of characters, allocating a new one if it does not exist.
+     * <p>
+     * A String is only created for the range when a new token is allocated.
+     *
+     * @param str   The characters.
+     * @param start The start index, inclusive.
+     * @param end   The end index, exclusive.
+     * @param hash  The hash of the range, as computed by {@link HashedLines#hash(CharSequence, int, int)}.
+     * @return The token.
+     */
+    int add(CharSequence str, int start, int end, long hash);
+
+    /**
+     * Get the token for the given String, without allocating one.
+     *
+     * @param str The String.
+     * @return The token, or {@code -1} if the String has no token.
+     */
+    int find(String str);
+
+    /**
+     * Get the String for a given token.
+     *
+     * @param token The token.
+     * @return The String.
+     */
+    String get(int token);
+
+    /**
+     * @return The number of allocated tokens. All tokens are less than this value.
+     */
+    int size();
+}
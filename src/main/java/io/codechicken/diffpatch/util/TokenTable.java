@@ -0,0 +1,116 @@
+package io.codechicken.diffpatch.util;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table, mapping Strings to densely allocated int tokens.
+ * <p>
+ * Tokens are allocated in insertion order starting from 0, and
+ * may be mapped back to their String via {@link #get(int)}.
+ * <p>
+ * Not thread safe, see {@link ConcurrentTokenTable}.
+ */
+public class TokenTable implements TokenInterner {
+
+    private static final int EMPTY = -1;
+
+    // token -> String
+    private String[] strings;
+    // token -> hash of its String
+    private long[] hashes;
+    private int size;
+
+    // slot -> token, EMPTY if free
+    private int[] table;
+    private int mask;
+
+    public TokenTable() {
+        this(256);
+    }
+
+    public TokenTable(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        strings = new String[cap / 2];
+        hashes = new long[cap / 2];
+        table = new int[cap];
+        Arrays.fill(table, EMPTY);
+        mask = cap - 1;
+    }
+
+    @Override
+    public int add(CharSequence str, int start, int end, long hash) {
+        int slot = (int) hash & mask;
+        int token;
+        while ((token = table[slot]) != EMPTY) {
+            if (hashes[token] == hash && rangeEquals(strings[token], str, start, end)) {
+                return token;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        token = size++;
+        if (token == strings.length) {
+            strings = Arrays.copyOf(strings, token * 2);
+            hashes = Arrays.copyOf(hashes, token * 2);
+        }
+        strings[token] = str.subSequence(start, end).toString();
+        hashes[token] = hash;
+        table[slot] = token;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return token;
+    }
+
+    @Override
+    public int find(String str) {
+        long hash = HashedLines.hash(str);
+        int slot = (int) hash & mask;
+        int token;
+        while ((token = table[slot]) != EMPTY) {
+            if (hashes[token] == hash && strings[token].equals(str)) {
+                return token;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public String get(int token) {
+        if (token < 0 || token >= size) throw new IndexOutOfBoundsException("Token " + token + " out of range [0, " + size + ")");
+
+        return strings[token];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    static boolean rangeEquals(String s, CharSequence str, int start, int end) {
+        int len = end - start;
+        if (s.length() != len) return false;
+        if (str instanceof String) return s.regionMatches(0, (String) str, start, len);
+
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != str.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int cap) {
+        table = new int[cap];
+        Arrays.fill(table, EMPTY);
+        mask = cap - 1;
+        for (int token = 0; token < size; token++) {
+            int slot = (int) hashes[token] & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = token;
+        }
+    }
+}
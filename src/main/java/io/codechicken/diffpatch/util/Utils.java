@@ -16,6 +16,60 @@ public class Utils {
         return str;
     }
 
+    /**
+     * Token array equivalent of {@link String#indexOf(String, int)}.
+     *
+     * @param tokens    The tokens to search.
+     * @param target    The tokens to search for.
+     * @param fromIndex The index to start searching from.
+     * @return The index of the first occurrence of {@code target} at or after {@code fromIndex}, otherwise {@code -1}.
+     */
+    public static int indexOf(int[] tokens, int[] target, int fromIndex) {
+        int max = tokens.length - target.length;
+        if (fromIndex >= tokens.length) {
+            return target.length == 0 ? tokens.length : -1;
+        }
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        for (int i = fromIndex; i <= max; i++) {
+            if (regionMatches(tokens, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Token array equivalent of {@link String#lastIndexOf(String, int)}.
+     *
+     * @param tokens    The tokens to search.
+     * @param target    The tokens to search for.
+     * @param fromIndex The index to start searching backwards from.
+     * @return The index of the last occurrence of {@code target} at or before {@code fromIndex}, otherwise {@code -1}.
+     */
+    public static int lastIndexOf(int[] tokens, int[] target, int fromIndex) {
+        int max = tokens.length - target.length;
+        if (fromIndex > max) {
+            fromIndex = max;
+        }
+        for (int i = fromIndex; i >= 0; i--) {
+            if (regionMatches(tokens, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(int[] tokens, int offset, int[] target) {
+        for (int j = 0; j < target.length; j++) {
+            if (tokens[offset + j] != target[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static Set<String> filterPrefixed(Set<String> toFilter, String[] filters) {
         if (filters.length == 0) return toFilter;
 
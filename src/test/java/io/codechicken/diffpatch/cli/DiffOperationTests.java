@@ -1,11 +1,15 @@
 package io.codechicken.diffpatch.cli;
 
+import io.codechicken.diffpatch.diff.Differ;
+import io.codechicken.diffpatch.diff.MyersDiffer;
 import io.codechicken.diffpatch.test.TestBase;
 import io.codechicken.diffpatch.util.ArchiveBuilder;
+import io.codechicken.diffpatch.util.CharRepresenter;
 import io.codechicken.diffpatch.util.Input;
 import io.codechicken.diffpatch.util.LogLevel;
 import io.codechicken.diffpatch.util.Output;
 import io.codechicken.diffpatch.util.archiver.ArchiveReader;
+import net.covers1624.quack.collection.FastStream;
 import net.covers1624.quack.io.NullOutputStream;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -14,10 +18,14 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 
 import static io.codechicken.diffpatch.util.archiver.ArchiveFormat.ZIP;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Created by covers1624 on 22/6/24.
@@ -54,6 +62,95 @@ public class DiffOperationTests extends TestBase {
         assertEquals(testResourceString("/patches/ModifiedB.txt.patch"), output.toString("UTF-8"));
     }
 
+    @Test
+    public void testDiffSingleStreaming() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CliOperation.Result<DiffOperation.DiffSummary> result = DiffOperation.builder()
+                .logTo(System.out)
+                .level(LogLevel.ALL)
+                .baseInput(Input.SingleInput.pipe(testResourceStream("/files/A.txt"), "a/A.txt"))
+                .changedInput(Input.SingleInput.pipe(testResourceStream("/files/B.txt"), "b/A.txt"))
+                .patchesOutput(Output.SingleOutput.pipe(output))
+                // Smaller than the files, so they don't fit in one window.
+                .streamWindow(8)
+                .build()
+                .operate();
+        assertEquals(1, result.exit);
+        assertEquals(testResourceString("/patches/ModifiedA.txt.patch"), output.toString("UTF-8"));
+
+        // No changes, nothing written.
+        output.reset();
+        result = DiffOperation.builder()
+                .logTo(System.out)
+                .level(LogLevel.ALL)
+                .baseInput(Input.SingleInput.pipe(testResourceStream("/files/A.txt"), "a/A.txt"))
+                .changedInput(Input.SingleInput.pipe(testResourceStream("/files/A.txt"), "b/A.txt"))
+                .patchesOutput(Output.SingleOutput.pipe(output))
+                .streamWindow(8)
+                .build()
+                .operate();
+        assertEquals(0, result.exit);
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    public void testDiffSingleStreamingParity() throws IOException {
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            a.append("line ").append(i).append('\n');
+            b.append(i % 10 == 0 ? "changed " : "line ").append(i).append('\n');
+        }
+
+        // Unnamed inputs are written as /dev/null, the same as a full diff.
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        DiffOperation.builder()
+                .logTo(System.out)
+                .level(LogLevel.ALL)
+                .baseInput(Input.SingleInput.string(a.toString(), null))
+                .changedInput(Input.SingleInput.string(b.toString(), null))
+                .patchesOutput(Output.SingleOutput.pipe(full))
+                .build()
+                .operate();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CliOperation.Result<DiffOperation.DiffSummary> result = DiffOperation.builder()
+                .logTo(System.out)
+                .level(LogLevel.ALL)
+                .baseInput(Input.SingleInput.string(a.toString(), null))
+                .changedInput(Input.SingleInput.string(b.toString(), null))
+                .patchesOutput(Output.SingleOutput.pipe(output))
+                .streamWindow(8)
+                .build()
+                .operate();
+        assertEquals(1, result.exit);
+        assertTrue(output.toString("UTF-8").startsWith("--- /dev/null\n+++ /dev/null\n"));
+        assertEquals(full.toString("UTF-8"), output.toString("UTF-8"));
+
+        // Each window has its own representer and the work budget, but the file only falls back once.
+        List<CharRepresenter> charReps = new ArrayList<>();
+        List<Differ> differs = new ArrayList<>();
+        result = DiffOperation.builder()
+                .logTo(System.out)
+                .level(LogLevel.ALL)
+                .baseInput(Input.SingleInput.string(a.toString(), "a/A.txt"))
+                .changedInput(Input.SingleInput.string(b.toString(), "b/A.txt"))
+                .patchesOutput(Output.SingleOutput.pipe(NullOutputStream.INSTANCE))
+                .sharedDifferFactory(charRep -> {
+                    Differ differ = new MyersDiffer(charRep);
+                    charReps.add(charRep);
+                    differs.add(differ);
+                    return differ;
+                })
+                .workBudget(1)
+                .streamWindow(8)
+                .build()
+                .operate();
+        assertEquals(1, result.exit);
+        assertTrue(FastStream.of(differs).filter(Differ::isBudgetExceeded).count() > 1);
+        assertEquals(charReps.size(), new HashSet<>(charReps).size());
+        assertEquals(1, result.summary.fallbackFiles);
+    }
+
     @Test
     public void testDiffArchive() throws IOException {
         byte[] a = new ArchiveBuilder()
@@ -1,6 +1,8 @@
 package io.codechicken.diffpatch.cli;
 
 import io.codechicken.diffpatch.diff.Differ;
+import io.codechicken.diffpatch.diff.MyersDiffer;
+import io.codechicken.diffpatch.diff.PatienceDiffer;
 import io.codechicken.diffpatch.match.FuzzyLineMatcher;
 import io.codechicken.diffpatch.test.TestBase;
 import io.codechicken.diffpatch.util.Input;
@@ -96,6 +98,20 @@ public class DiffPatchCliTests extends TestBase {
         assertEquals(0, op.ignorePrefixes.length);
     }
 
+    @Test
+    public void testDiffAlgorithm() throws IOException {
+        List<String> help = new ArrayList<>();
+        DiffOperation op = parse(help, "--diff", "./a", "./b");
+        assertTrue(help.isEmpty());
+        assertNotNull(op);
+        assertTrue(op.differFactory.get() instanceof PatienceDiffer);
+
+        op = parse(help, "--diff", "--algorithm", "myers", "./a", "./b");
+        assertTrue(help.isEmpty());
+        assertNotNull(op);
+        assertTrue(op.differFactory.get() instanceof MyersDiffer);
+    }
+
     @Test
     public void testDiffToFile() throws IOException {
         List<String> help = new ArrayList<>();
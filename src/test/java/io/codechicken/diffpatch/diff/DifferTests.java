@@ -0,0 +1,387 @@
+package io.codechicken.diffpatch.diff;
+
+import io.codechicken.diffpatch.patch.Patcher;
+import io.codechicken.diffpatch.util.CharRepresenter;
+import io.codechicken.diffpatch.util.Diff;
+import io.codechicken.diffpatch.util.LineRange;
+import io.codechicken.diffpatch.util.Patch;
+import io.codechicken.diffpatch.util.PatchFile;
+import io.codechicken.diffpatch.util.PatchMode;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DifferTests {
+
+    @Test
+    public void testPatienceRoundTrip() {
+        testRoundTrip(PatienceDiffer::new);
+    }
+
+    @Test
+    public void testLineMatchedRoundTrip() {
+        testRoundTrip(LineMatchedDiffer::new);
+    }
+
+    @Test
+    public void testMyersRoundTrip() {
+        testRoundTrip(MyersDiffer::new);
+    }
+
+    @Test
+    public void testHistogramRoundTrip() {
+        testRoundTrip(HistogramDiffer::new);
+        testRoundTrip(() -> {
+            HistogramDiffer differ = new HistogramDiffer();
+            differ.setMaxChainLength(2); // force the Myers fallback
+            return differ;
+        });
+    }
+
+    @Test
+    public void testParallelPatienceIdentical() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            List<String> a = randomLines(randy, 5000, 3000);
+            List<String> b = new ArrayList<>(a);
+            for (int j = 0; j < 200; j++) {
+                b.set(randy.nextInt(b.size()), "line " + randy.nextInt(3000));
+            }
+
+            PatienceDiffer parallel = new PatienceDiffer();
+            parallel.setParallel(true);
+            parallel.setParallelThreshold(16);
+            assertArrayEquals(new PatienceDiffer().match(a, b), parallel.match(a, b));
+        }
+    }
+
+    @Test
+    public void testParallelLineMatchedIdentical() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            List<String> a = randomLines(randy, 2000, 1000);
+            List<String> b = new ArrayList<>(a);
+            for (int j = 0; j < 100; j++) {
+                int idx = randy.nextInt(b.size());
+                b.set(idx, b.get(idx) + " changed " + randy.nextInt(10));
+            }
+
+            LineMatchedDiffer parallel = new LineMatchedDiffer();
+            parallel.setParallel(true);
+            assertArrayEquals(new LineMatchedDiffer().match(a, b), parallel.match(a, b));
+        }
+    }
+
+    @Test
+    public void testMyersMinimal() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            List<String> a = randomLines(randy, randy.nextInt(60), 4);
+            List<String> b = randomLines(randy, randy.nextInt(60), 4);
+            int[] matches = new MyersDiffer().match(a, b);
+            int matched = 0;
+            int last = -1;
+            for (int j = 0; j < matches.length; j++) {
+                if (matches[j] < 0) continue;
+                assertTrue(matches[j] > last);
+                assertEquals(a.get(j), b.get(matches[j]));
+                last = matches[j];
+                matched++;
+            }
+            assertEquals(lcsLength(a, b), matched);
+        }
+    }
+
+    @Test
+    public void testStreamingRoundTrip() throws IOException {
+        Random randy = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            List<String> a = randomLines(randy, 1 + randy.nextInt(600), 1 + randy.nextInt(200));
+            List<String> b = new ArrayList<>(a);
+            for (int j = randy.nextInt(40); j >= 0; j--) {
+                int idx = randy.nextInt(b.size() + 1);
+                if (randy.nextBoolean() && idx < b.size()) {
+                    b.remove(idx);
+                } else {
+                    b.add(idx, "line " + randy.nextInt(300));
+                }
+            }
+
+            PatchFile patchFile = new PatchFile();
+            new StreamingDiffer(PatienceDiffer::new, 2 + randy.nextInt(64), randy.nextInt(4)).diff(reader(a), reader(b), patchFile.patches::add);
+            Patcher patcher = new Patcher(patchFile, a);
+            assertTrue(patcher.patch(PatchMode.EXACT).stream().allMatch(e -> e.success));
+            assertEquals(b, patcher.lines);
+
+            // Both inputs within one window, same as a full diff.
+            List<Patch> patches = new ArrayList<>();
+            new StreamingDiffer(PatienceDiffer::new, 1000, Differ.DEFAULT_CONTEXT).diff(reader(a), reader(b), patches::add);
+            assertEquals(new PatienceDiffer().makePatches(a, b).toString(), patches.toString());
+        }
+    }
+
+    @Test
+    public void testStreamingChangeSpansCut() throws IOException {
+        Random randy = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            int windowSize = 40 + randy.nextInt(200);
+            // Unique lines, so every window has anchors and matches as the whole file does.
+            List<String> a = new ArrayList<>();
+            for (int j = 0; j < 1000 + randy.nextInt(1000); j++) {
+                a.add("line " + j);
+            }
+            List<String> b = new ArrayList<>(a);
+            // Changes up to a quarter window long, some close enough to share a hunk, back to front so indices hold.
+            int at = b.size();
+            while (true) {
+                at -= 1 + randy.nextInt(windowSize);
+                int len = 1 + randy.nextInt(windowSize / 4);
+                if (at - len < 0) break;
+
+                at -= len;
+                List<String> change = b.subList(at, at + len);
+                int op = randy.nextInt(3);
+                if (op == 0) {
+                    change.clear();
+                } else {
+                    if (op == 1) {
+                        change.replaceAll(e -> e + " changed");
+                    }
+                    for (int j = 0; j < len; j++) {
+                        change.add("new " + at + " " + j);
+                    }
+                }
+            }
+
+            int context = randy.nextInt(4);
+            List<Patch> patches = new ArrayList<>();
+            new StreamingDiffer(PatienceDiffer::new, windowSize, context).diff(reader(a), reader(b), patches::add);
+            assertEquals(new PatienceDiffer().makePatches(a, b, context, true).toString(), patches.toString());
+        }
+    }
+
+    @Test
+    public void testStreamingSparseAnchors() throws IOException {
+        Random randy = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            int windowSize = 40 + randy.nextInt(200);
+            // Pairs of kept lines further apart than half a window, every other line changed. A window
+            // starting on the second of a pair has its only anchor in the first half at its start.
+            int period = windowSize / 2 + 1 + randy.nextInt(windowSize / 2);
+            List<String> a = new ArrayList<>();
+            List<String> b = new ArrayList<>();
+            for (int j = 0; j < 1000 + randy.nextInt(1000); j++) {
+                a.add("line " + j);
+                b.add(j % period <= 1 ? "line " + j : "changed " + j);
+            }
+
+            List<Integer> starts = new ArrayList<>();
+            PatchFile patchFile = new PatchFile();
+            new StreamingDiffer(() -> new PatienceDiffer() {
+                @Override
+                public List<Diff> diff(List<String> lines1, List<String> lines2) {
+                    if (!lines1.isEmpty()) {
+                        starts.add(Integer.parseInt(lines1.get(0).substring(5)));
+                    }
+                    return super.diff(lines1, lines2);
+                }
+            }, windowSize, randy.nextInt(4)).diff(reader(a), reader(b), patchFile.patches::add);
+            for (int j = 1; j < starts.size(); j++) {
+                assertTrue(starts.get(j) - starts.get(j - 1) >= windowSize / 4);
+            }
+
+            Patcher patcher = new Patcher(patchFile, a);
+            assertTrue(patcher.patch(PatchMode.EXACT).stream().allMatch(e -> e.success));
+            assertEquals(b, patcher.lines);
+        }
+    }
+
+    @Test
+    public void testRematch() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            List<String> a = randomLines(randy, 1 + randy.nextInt(300), 1 + randy.nextInt(200));
+            List<String> b = new ArrayList<>(a);
+            for (int j = randy.nextInt(20); j >= 0; j--) {
+                b.set(randy.nextInt(b.size()), "line " + randy.nextInt(300));
+            }
+            PatienceDiffer differ = new PatienceDiffer();
+            List<Patch> patches = differ.makePatches(a, b);
+
+            // Replace a range of b.
+            int start = randy.nextInt(b.size() + 1);
+            LineRange oldRange = new LineRange(start, start + randy.nextInt(b.size() - start + 1));
+            List<String> edit = randomLines(randy, randy.nextInt(10), 300);
+            List<String> b2 = new ArrayList<>(b.subList(0, start));
+            b2.addAll(edit);
+            b2.addAll(b.subList(oldRange.getEnd(), b.size()));
+
+            PatchFile patchFile = new PatchFile();
+            patchFile.patches = differ.remakePatches(patches, a, b2, oldRange, LineRange.fromStartLen(start, edit.size()), Differ.DEFAULT_CONTEXT, true);
+            Patcher patcher = new Patcher(patchFile, a);
+            assertTrue(patcher.patch(PatchMode.EXACT).stream().allMatch(e -> e.success));
+            assertEquals(b2, patcher.lines);
+        }
+    }
+
+    @Test
+    public void testEditScriptPatches() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 300; i++) {
+            List<String> a = randomLines(randy, randy.nextInt(200), 1 + randy.nextInt(100));
+            List<String> b = new ArrayList<>(a);
+            for (int j = randy.nextInt(20); j >= 0; j--) {
+                int idx = randy.nextInt(b.size() + 1);
+                if (idx < b.size() && randy.nextBoolean()) {
+                    b.set(idx, b.get(idx) + " changed");
+                } else {
+                    b.add(idx, "line " + randy.nextInt(100));
+                }
+            }
+            int context = randy.nextInt(5);
+            boolean collate = randy.nextBoolean();
+            LineMatchedDiffer differ = new LineMatchedDiffer();
+            List<Patch> expected = Differ.makePatches(differ.diff(a, b), context, collate);
+            assertEquals(expected.toString(), differ.makePatches(a, b, context, collate).toString());
+        }
+    }
+
+    @Test
+    public void testWorkBudgetFallback() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 50; i++) {
+            List<String> a = randomLines(randy, 1000, 50);
+            List<String> b = new ArrayList<>(a);
+            for (int j = 0; j < 50; j++) {
+                int idx = randy.nextInt(b.size());
+                b.set(idx, b.get(idx) + " changed");
+            }
+            for (Supplier<Differ> factory : Arrays.<Supplier<Differ>>asList(PatienceDiffer::new, LineMatchedDiffer::new, MyersDiffer::new, HistogramDiffer::new)) {
+                Differ unlimited = factory.get();
+                int[] expected = unlimited.match(a, b);
+                assertFalse(unlimited.isBudgetExceeded());
+
+                Differ large = factory.get();
+                large.setWorkBudget(Long.MAX_VALUE);
+                assertArrayEquals(expected, large.match(a, b));
+                assertFalse(large.isBudgetExceeded());
+
+                Differ small = factory.get();
+                small.setWorkBudget(10);
+                CharRepresenter rep = new CharRepresenter();
+                assertArrayEquals(Differ.matchEnds(rep.linesToTokens(a), rep.linesToTokens(b)), small.match(a, b));
+                assertTrue(small.isBudgetExceeded());
+            }
+
+            // Enough for patience, but not for fuzzy matching.
+            LineMatchedDiffer lineMatched = new LineMatchedDiffer();
+            lineMatched.setWorkBudget(10000);
+            assertArrayEquals(new PatienceDiffer().match(a, b), lineMatched.match(a, b));
+            assertTrue(lineMatched.isBudgetExceeded());
+        }
+
+        // Reindented, with every odd line edited. Patience matches nothing, limitRangeArea
+        // splits at the even lines, then the budget runs out before fuzzy matching the odd lines.
+        List<String> a = new ArrayList<>();
+        List<String> b = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            a.add("int value" + i + " = " + i + ";");
+            b.add("    int value" + i + " = " + i + (i % 2 == 0 ? ";" : "L;"));
+        }
+        LineMatchedDiffer split = new LineMatchedDiffer();
+        split.setMaxFuzzyArea(100);
+        split.setWorkBudget(200);
+        int[] matches = split.match(a, b);
+        assertTrue(split.isBudgetExceeded());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0 ? i : -1, matches[i]);
+        }
+
+        split.setWorkBudget(0);
+        assertArrayEquals(IntStream.range(0, 100).toArray(), split.match(a, b));
+    }
+
+    @Test
+    public void testMaxFuzzyArea() {
+        List<String> a = new ArrayList<>();
+        List<String> b = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            a.add("int value" + i + " = " + i + ";");
+            // Reindented, with the odd line rewritten.
+            b.add(i % 2 == 0 ? "    int value" + i + " = " + i + ";" : "long other" + i + " = 0;");
+        }
+
+        List<String> log = new ArrayList<>();
+        LineMatchedDiffer differ = new LineMatchedDiffer();
+        differ.setMaxFuzzyArea(100);
+        differ.setLogger(log::add);
+        int[] matches = differ.match(a, b);
+        for (int i = 0; i < 100; i += 2) {
+            assertEquals(i, matches[i]);
+        }
+        assertEquals(1, log.size());
+        assertTrue(log.get(0).contains("split at 50 anchors"));
+
+        // Too large to split, and no anchors.
+        log.clear();
+        differ.setMaxFuzzyArea(1);
+        int[] unmatched = differ.match(a.subList(1, 2), b.subList(0, 2));
+        assertArrayEquals(new int[] { -1 }, unmatched);
+        assertEquals(2, log.size());
+    }
+
+    private static BufferedReader reader(List<String> lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    private static void testRoundTrip(Supplier<Differ> differ) {
+        Random randy = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            // Few distinct lines, to exercise inputs without unique anchors.
+            List<String> a = randomLines(randy, 1 + randy.nextInt(300), 1 + randy.nextInt(20));
+            List<String> b = new ArrayList<>(a);
+            for (int j = randy.nextInt(20); j >= 0; j--) {
+                int idx = randy.nextInt(b.size() + 1);
+                if (randy.nextBoolean() && idx < b.size()) {
+                    b.remove(idx);
+                } else {
+                    b.add(idx, "line " + randy.nextInt(30));
+                }
+            }
+
+            PatchFile patchFile = new PatchFile();
+            patchFile.patches = differ.get().makePatches(a, b);
+            Patcher patcher = new Patcher(patchFile, a);
+            assertTrue(patcher.patch(PatchMode.EXACT).stream().allMatch(e -> e.success));
+            assertEquals(b, patcher.lines);
+        }
+    }
+
+    private static List<String> randomLines(Random randy, int len, int distinct) {
+        List<String> lines = new ArrayList<>(len);
+        for (int i = 0; i < len; i++) {
+            lines.add("line " + randy.nextInt(distinct));
+        }
+        return lines;
+    }
+
+    private static int lcsLength(List<String> a, List<String> b) {
+        int[][] dp = new int[a.size() + 1][b.size() + 1];
+        for (int i = 1; i <= a.size(); i++) {
+            for (int j = 1; j <= b.size(); j++) {
+                dp[i][j] = a.get(i - 1).equals(b.get(j - 1)) ? dp[i - 1][j - 1] + 1 : Math.max(dp[i - 1][j], dp[i][j - 1]);
+            }
+        }
+        return dp[a.size()][b.size()];
+    }
+}
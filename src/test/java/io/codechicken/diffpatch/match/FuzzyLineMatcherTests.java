@@ -0,0 +1,173 @@
+package io.codechicken.diffpatch.match;
+
+import io.codechicken.diffpatch.util.LineRange;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.junit.jupiter.api.Test;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FuzzyLineMatcherTests {
+
+    @Test
+    public void testLevenshteinMatchesReference() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            // Lengths either side of the 64 token block boundaries.
+            int maxLen = i % 4 == 0 ? 200 : 70;
+            int[] s = randomTokens(randy, randy.nextInt(maxLen), 1 + randy.nextInt(8));
+            int[] t = randomTokens(randy, randy.nextInt(maxLen), 1 + randy.nextInt(8));
+            assertEquals(FuzzyLineMatcher.levenshteinDistanceDP(s, t), FuzzyLineMatcher.levenshteinDistance(s, t));
+        }
+    }
+
+    @Test
+    public void testBoundedLevenshtein() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            int maxLen = i % 4 == 0 ? 200 : 70;
+            int[] s = randomTokens(randy, randy.nextInt(maxLen), 1 + randy.nextInt(8));
+            int[] t = randomTokens(randy, randy.nextInt(maxLen), 1 + randy.nextInt(8));
+            int maxDistance = randy.nextInt(maxLen);
+            int d = FuzzyLineMatcher.levenshteinDistanceDP(s, t);
+            assertEquals(Math.min(d, maxDistance + 1), FuzzyLineMatcher.levenshteinDistance(s, t, maxDistance));
+        }
+    }
+
+    @Test
+    public void testSignatureLowerBound() {
+        Random randy = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            int[] s = randomTokens(randy, randy.nextInt(40), 1 + randy.nextInt(100));
+            int[] t = randomTokens(randy, randy.nextInt(40), 1 + randy.nextInt(100));
+            int bound = FuzzyLineMatcher.distanceLowerBound(s, FuzzyLineMatcher.signature(s), t, FuzzyLineMatcher.signature(t));
+            assertTrue(bound <= FuzzyLineMatcher.levenshteinDistanceDP(s, t));
+            assertEquals(FuzzyLineMatcher.matchLines(s, t), FuzzyLineMatcher.matchLines(s, FuzzyLineMatcher.signature(s), t, FuzzyLineMatcher.signature(t)));
+        }
+    }
+
+    @Test
+    public void testResetMatchesFreshMatrix() {
+        Random randy = new Random(0);
+        // Lines are edits of a few base lines, so most pairs of lines score above 0.
+        int[][] base = new int[8][];
+        for (int i = 0; i < base.length; i++) {
+            base[i] = randomTokens(randy, 4 + randy.nextInt(8), 30);
+        }
+        List<int[]> search = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int[] line = base[randy.nextInt(base.length)].clone();
+            line[randy.nextInt(line.length)] = randy.nextInt(30) * 1021;
+            search.add(line);
+        }
+        LongList searchSigs = FuzzyLineMatcher.signatures(search);
+
+        // One matrix reused for every pattern and range, growing and shrinking between them.
+        FuzzyLineMatcher.MatchMatrix pooled = new FuzzyLineMatcher.MatchMatrix(search, searchSigs, FuzzyLineMatcher.MatchMatrix.DEFAULT_MAX_OFFSET);
+        int last = 0;
+        for (int run = 0; run < 50; run++) {
+            int patternLength = 1 + randy.nextInt(run % 2 == 0 ? 4 : 30);
+            int copyFrom = randy.nextInt(search.size() - patternLength);
+            List<int[]> pattern = new ArrayList<>();
+            for (int i = 0; i < patternLength; i++) {
+                int[] line = search.get(copyFrom + i).clone();
+                if (randy.nextInt(3) == 0) {
+                    line[randy.nextInt(line.length)] = randy.nextInt(30) * 1021;
+                }
+                pattern.add(line);
+            }
+            LongList patternSigs = FuzzyLineMatcher.signatures(pattern);
+            int start = randy.nextInt(search.size() - 40);
+            LineRange range = run % 5 == 0 ? null : new LineRange(start, start + 40 + randy.nextInt(search.size() - start - 40));
+
+            pooled.reset(pattern, patternSigs, range);
+            FuzzyLineMatcher.MatchMatrix fresh = new FuzzyLineMatcher.MatchMatrix(pattern, patternSigs, search, searchSigs, FuzzyLineMatcher.MatchMatrix.DEFAULT_MAX_OFFSET, range);
+            assertEquals(fresh.workingRange, pooled.workingRange);
+
+            // Start next to where the last pattern was matched, so a step would reuse stale rows.
+            int loc = fresh.hasMatch(last + 1) ? last + 1 : fresh.workingRange.getFirst() + randy.nextInt(fresh.workingRange.getLength());
+            // Step both ways with the occasional jump, as the match runners do.
+            for (int i = 0; i < 60; i++) {
+                if (fresh.hasMatch(loc)) {
+                    assertEquals(fresh.matchScore(loc), pooled.matchScore(loc));
+                    assertArrayEquals(fresh.path(), pooled.path());
+                    last = loc;
+                }
+                int r = randy.nextInt(10);
+                loc += r < 6 ? 1 : r < 9 ? -1 : randy.nextInt(21) - 10;
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRangesConvertLinesOnCallingThread() {
+        Random randy = new Random(0);
+        List<int[]> lines = new ArrayList<>();
+        int[] matches = new int[400];
+        for (int i = 0; i < matches.length; i++) {
+            lines.add(randomTokens(randy, 1 + randy.nextInt(10), 20));
+            // Every 10th line is matched, leaving many unmatched ranges.
+            matches[i] = i % 10 == 0 ? i : -1;
+        }
+        // Signatures are supplied, so only the matching reads the lines.
+        FirstReaderLines lines1 = new FirstReaderLines(lines);
+        FirstReaderLines lines2 = new FirstReaderLines(lines);
+
+        FuzzyLineMatcher matcher = new FuzzyLineMatcher();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            matcher.executor = executor;
+            matcher.matchLinesByWords(matches, lines1, FuzzyLineMatcher.signatures(lines), lines2, FuzzyLineMatcher.signatures(lines));
+        } finally {
+            executor.shutdown();
+        }
+        // A lazy list converts a line on its first read, which must be on the calling thread.
+        for (int i = 0; i < matches.length; i++) {
+            if (i % 10 != 0) {
+                assertEquals(Thread.currentThread(), lines1.firstReaders[i]);
+                assertEquals(Thread.currentThread(), lines2.firstReaders[i]);
+            }
+        }
+    }
+
+    private static int[] randomTokens(Random randy, int len, int distinct) {
+        int[] tokens = new int[len];
+        for (int i = 0; i < len; i++) {
+            tokens[i] = randy.nextInt(distinct) * 1021;
+        }
+        return tokens;
+    }
+
+    // Records the thread which first read each line.
+    private static class FirstReaderLines extends AbstractList<int[]> {
+
+        private final List<int[]> lines;
+        private final Thread[] firstReaders;
+
+        private FirstReaderLines(List<int[]> lines) {
+            this.lines = lines;
+            firstReaders = new Thread[lines.size()];
+        }
+
+        @Override
+        public int[] get(int index) {
+            synchronized (firstReaders) {
+                if (firstReaders[index] == null) {
+                    firstReaders[index] = Thread.currentThread();
+                }
+            }
+            return lines.get(index);
+        }
+
+        @Override
+        public int size() {
+            return lines.size();
+        }
+    }
+}
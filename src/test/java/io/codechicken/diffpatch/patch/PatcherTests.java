@@ -0,0 +1,107 @@
+package io.codechicken.diffpatch.patch;
+
+import io.codechicken.diffpatch.diff.PatienceDiffer;
+import io.codechicken.diffpatch.util.PatchFile;
+import io.codechicken.diffpatch.util.PatchMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PatcherTests {
+
+    @Test
+    public void testFuzzyPrefilterCandidates() {
+        Random randy = new Random(0);
+        List<String> a = lines(randy);
+        List<String> b = new ArrayList<>(a);
+        b.set(1000, "changed");
+
+        // One rare word of each context line renamed, and the hunk moved by 40 lines.
+        List<String> base = new ArrayList<>(a);
+        for (int i = 997; i <= 1003; i++) {
+            if (i != 1000) {
+                base.set(i, renameRare(a.get(i), 1));
+            }
+        }
+        for (int i = 0; i < 40; i++) {
+            base.add(500, line(randy, 5000 + i));
+        }
+        assertEquals(1040, patchBoth(a, b, base));
+
+        // The same edited context either side of where it was. Lines may be skipped at the start of a match, so both copies
+        // first match 30 lines away, and scores tie. Forward wins, as in MatchRunner.
+        base = new ArrayList<>(a);
+        for (int i = 0; i < 7; i++) {
+            String line = i == 3 ? a.get(1000) : renameRare(a.get(997 + i), 1);
+            base.set(967 + i, line);
+            base.set(1032 + i, line);
+            base.set(997 + i, line(randy, 6000 + i));
+        }
+        assertEquals(1035, patchBoth(a, b, base));
+    }
+
+    @Test
+    public void testFuzzyPrefilterFallback() {
+        Random randy = new Random(0);
+        List<String> a = lines(randy);
+        List<String> b = new ArrayList<>(a);
+        b.set(1000, "changed");
+
+        // Every rare word of the context renamed, the rest are too common to be candidates.
+        List<String> base = new ArrayList<>(a);
+        for (int i = 997; i <= 1003; i++) {
+            base.set(i, renameRare(a.get(i), 2));
+        }
+        assertEquals(1000, patchBoth(a, b, base));
+
+        // A rare word of the context on a line far away, which doesn't score above the minimum.
+        base.add(200, "r998a");
+        assertEquals(1001, patchBoth(a, b, base));
+    }
+
+    // Patches in FUZZY mode with and without the prefilter, returning where the changed line went.
+    private static int patchBoth(List<String> a, List<String> b, List<String> base) {
+        PatchFile patchFile = new PatchFile();
+        patchFile.patches = new PatienceDiffer().makePatches(a, b);
+        Patcher patcher = new Patcher(patchFile, base);
+        Patcher.Result result = patcher.patch(PatchMode.FUZZY).get(0);
+
+        Patcher prefiltered = new Patcher(patchFile, base);
+        prefiltered.setFuzzyPrefilter(true);
+        Patcher.Result prefilteredResult = prefiltered.patch(PatchMode.FUZZY).get(0);
+
+        assertTrue(result.success);
+        assertEquals(PatchMode.FUZZY, result.mode);
+        assertTrue(prefilteredResult.success);
+        assertEquals(PatchMode.FUZZY, prefilteredResult.mode);
+        assertEquals(result.fuzzyQuality, prefilteredResult.fuzzyQuality);
+        assertEquals(patcher.lines, prefiltered.lines);
+        return patcher.lines.indexOf("changed");
+    }
+
+    private static List<String> lines(Random randy) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            lines.add(line(randy, i));
+        }
+        return lines;
+    }
+
+    // Four words from a pool of 50, each on far more lines than the prefilter considers, and two unique words.
+    private static String line(Random randy, int i) {
+        return "c" + randy.nextInt(50) + " c" + randy.nextInt(50) + " r" + i + "a c" + randy.nextInt(50) + " c" + randy.nextInt(50) + " r" + i + "b";
+    }
+
+    private static String renameRare(String line, int count) {
+        String[] words = line.split(" ");
+        words[2] += "x";
+        if (count > 1) {
+            words[5] += "x";
+        }
+        return String.join(" ", words);
+    }
+}
@@ -0,0 +1,150 @@
+package io.codechicken.diffpatch.util;
+
+import io.codechicken.diffpatch.diff.Differ;
+import io.codechicken.diffpatch.diff.PatienceDiffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CharRepresenterTests {
+
+    @Test
+    public void testLineTokens() {
+        CharRepresenter rep = new CharRepresenter();
+        int a = rep.addLine("a");
+        int b = rep.addLine("b");
+        assertNotEquals(a, b);
+        assertEquals(a, rep.addLine(new String("a")));
+        assertEquals("b", rep.getLineForToken(b));
+    }
+
+    @Test
+    public void testHashedLineTokens() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            lines.add("line " + i % 10);
+        }
+        HashedLines hashed = new HashedLines(lines);
+        assertEquals(HashedLines.hash("line 3"), hashed.getHash(3));
+        assertArrayEquals(new CharRepresenter().linesToTokens(lines), new CharRepresenter().linesToTokens(hashed));
+
+        CharRepresenter rep = new CharRepresenter();
+        int[] tokens = rep.linesToTokens(hashed);
+        assertEquals(tokens[3], rep.addLine("line 3"));
+    }
+
+    @Test
+    public void testWordTokens() {
+        CharRepresenter rep = new CharRepresenter();
+        int[] words = rep.wordsToTokens("public  int foo123 = 42;");
+        assertEquals(10, words.length);
+        assertEquals("public", rep.getWordForToken(words[0]));
+        assertEquals("  ", rep.getWordForToken(words[1]));
+        assertEquals("foo123", rep.getWordForToken(words[4]));
+        assertEquals('=', words[6]);
+        assertEquals("42", rep.getWordForToken(words[8]));
+        assertEquals(';', words[9]);
+        assertArrayEquals(words, rep.wordsToTokens(new StringBuilder("public  int foo123 = 42;").toString()));
+        assertEquals(rep.addWord("foo123"), words[4]);
+    }
+
+    @Test
+    public void testNonAsciiCharWord() {
+        // U+0080 is the first char past the ASCII words, and must not share a token with the first interned word.
+        CharRepresenter rep = new CharRepresenter();
+        int word = rep.addWord("word");
+        int c = rep.addWord("\u0080");
+        assertNotEquals(word, c);
+        assertEquals("word", rep.getWordForToken(word));
+        assertEquals("\u0080", rep.getWordForToken(c));
+        assertArrayEquals(new int[] { c }, rep.wordsToTokens("\u0080"));
+    }
+
+    @Test
+    public void testMoreLinesThanChars() {
+        List<String> a = new ArrayList<>();
+        for (int i = 0; i < 70000; i++) {
+            a.add("line " + i);
+        }
+        List<String> b = new ArrayList<>(a);
+        b.set(66000, "changed");
+
+        CharRepresenter rep = new CharRepresenter();
+        List<Patch> patches = new PatienceDiffer(rep).makePatches(a, b);
+        assertTrue(rep.getMaxLineToken() > Character.MAX_VALUE);
+        assertEquals(1, patches.size());
+        Patch patch = patches.get(0);
+        assertEquals(66000 - Differ.DEFAULT_CONTEXT, patch.start1);
+        assertEquals(1 + 2 * Differ.DEFAULT_CONTEXT, patch.length1);
+    }
+
+    @Test
+    public void testConcurrentTokens() throws Exception {
+        CharRepresenter rep = CharRepresenter.concurrent();
+        Set<String> distinct = new HashSet<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                List<String> lines = new ArrayList<>();
+                for (int i = 0; i < 20000; i++) {
+                    lines.add("line " + (i * (t + 1)) % 30000);
+                }
+                distinct.addAll(lines);
+                futures.add(executor.submit(() -> rep.linesToTokens(lines)));
+            }
+            for (int t = 0; t < futures.size(); t++) {
+                int[] tokens = futures.get(t).get();
+                for (int i = 0; i < tokens.length; i++) {
+                    assertEquals("line " + (i * (t + 1)) % 30000, rep.getLineForToken(tokens[i]));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Every distinct line, and the reserved 0 token.
+        assertEquals(distinct.size() + 1, rep.getMaxLineToken());
+    }
+
+    @Test
+    public void testConcurrentPagesAllocatedLazily() {
+        ConcurrentTokenTable table = new ConcurrentTokenTable();
+        assertEquals(0, table.pageSlots());
+        table.add("a");
+        assertEquals(1, table.pageSlots());
+        for (int i = 0; i < 100000; i++) {
+            table.add("line " + i);
+        }
+        // 16384 tokens per page, grown by doubling.
+        assertEquals(8, table.pageSlots());
+        assertEquals("line 99999", table.get(table.find("line 99999")));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.get(table.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentSharedRotates() {
+        Supplier<CharRepresenter> shared = CharRepresenter.concurrentShared(1000);
+        CharRepresenter first = shared.get();
+        assertSame(first, shared.get());
+        // With the reserved 0 token, exactly at the limit.
+        for (int i = 0; i < 999; i++) {
+            first.addLine("line " + i);
+        }
+        assertSame(first, shared.get());
+        int token = first.addLine("last");
+        CharRepresenter second = shared.get();
+        assertNotSame(first, second);
+        assertSame(second, shared.get());
+        assertEquals(1, second.getMaxLineToken());
+        // The old representer still resolves its tokens.
+        assertEquals("last", first.getLineForToken(token));
+    }
+}
@@ -0,0 +1,76 @@
+package io.codechicken.diffpatch.util;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GapListTests {
+
+    @Test
+    public void testReplaceMatchesArrayList() {
+        Random randy = new Random(0);
+        List<Integer> expected = new ArrayList<>();
+        LongArrayList expectedLongs = new LongArrayList();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+            expectedLongs.add(i);
+        }
+        GapList<Integer> list = new GapList<>(expected);
+        LongGapList longs = new LongGapList(expectedLongs.toLongArray());
+        for (int i = 0; i < 2000; i++) {
+            int index = randy.nextInt(expected.size() + 1);
+            int remove = randy.nextInt(Math.min(5, expected.size() - index) + 1);
+            List<Integer> insert = new ArrayList<>();
+            for (int j = randy.nextInt(8); j > 0; j--) {
+                insert.add(randy.nextInt());
+            }
+
+            expected.subList(index, index + remove).clear();
+            expected.addAll(index, insert);
+            list.replace(index, remove, insert);
+            expectedLongs.removeElements(index, index + remove);
+            long[] insertLongs = insert.stream().mapToLong(Integer::longValue).toArray();
+            expectedLongs.addElements(index, insertLongs);
+            longs.replace(index, remove, insertLongs);
+
+            assertEquals(expected, list);
+            assertEquals(expectedLongs, longs);
+        }
+
+        list.subList(10, 20).clear();
+        expected.subList(10, 20).clear();
+        list.addAll(5, Collections.nCopies(3, 7));
+        expected.addAll(5, Collections.nCopies(3, 7));
+        assertEquals(expected, list);
+        assertThrows(IndexOutOfBoundsException.class, () -> list.replace(list.size(), 1, Collections.emptyList()));
+    }
+
+    @Test
+    public void testIntSearchMatchesUtils() {
+        Random randy = new Random(0);
+        int[] tokens = new int[200];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = randy.nextInt(3);
+        }
+        IntGapList list = new IntGapList(tokens);
+        for (int i = 0; i < 500; i++) {
+            // Move the gap somewhere, without changing the content.
+            int index = randy.nextInt(tokens.length);
+            list.replace(index, 1, new int[] { tokens[index] });
+
+            int[] target = new int[randy.nextInt(4)];
+            for (int j = 0; j < target.length; j++) {
+                target[j] = randy.nextInt(3);
+            }
+            int from = randy.nextInt(tokens.length + 10) - 5;
+            assertEquals(Utils.indexOf(tokens, target, from), list.indexOf(target, from));
+            assertEquals(Utils.lastIndexOf(tokens, target, from), list.lastIndexOf(target, from));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.codechicken.diffpatch.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KGramIndexTests {
+
+    @Test
+    public void testSearchMatchesScan() {
+        Random randy = new Random(0);
+        int[] tokens = new int[300];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = randy.nextInt(3);
+        }
+        KGramIndex index = new KGramIndex(tokens, 3);
+        IntGapList expected = new IntGapList(tokens);
+        for (int i = 0; i < 1000; i++) {
+            if (randy.nextInt(3) == 0) {
+                int at = randy.nextInt(expected.size() + 1);
+                int remove = randy.nextInt(Math.min(6, expected.size() - at) + 1);
+                int[] insert = new int[randy.nextInt(6)];
+                for (int j = 0; j < insert.length; j++) {
+                    insert[j] = randy.nextInt(3);
+                }
+                index.replace(at, remove, insert);
+                expected.replace(at, remove, insert);
+            }
+
+            int[] target = new int[randy.nextInt(6)];
+            for (int j = 0; j < target.length; j++) {
+                target[j] = randy.nextInt(3);
+            }
+            int from = randy.nextInt(expected.size() + 10) - 5;
+            assertEquals(expected.indexOf(target, from), index.indexOf(target, from));
+            assertEquals(expected.lastIndexOf(target, from), index.lastIndexOf(target, from));
+            if (!index.mayContain(target)) {
+                assertEquals(-1, expected.indexOf(target, 0));
+            }
+        }
+        assertEquals(expected, index.getText());
+    }
+}
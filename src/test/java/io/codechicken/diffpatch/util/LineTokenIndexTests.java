@@ -0,0 +1,55 @@
+package io.codechicken.diffpatch.util;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineTokenIndexTests {
+
+    @Test
+    public void testLinesMatchScan() {
+        Random randy = new Random(0);
+        List<int[]> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            lines.add(randomLine(randy));
+        }
+        GapList<int[]> list = new GapList<>(lines);
+        LineTokenIndex index = new LineTokenIndex(list);
+        for (int i = 0; i < 500; i++) {
+            if (randy.nextInt(3) == 0) {
+                int at = randy.nextInt(list.size() + 1);
+                int remove = randy.nextInt(Math.min(4, list.size() - at) + 1);
+                List<int[]> insert = new ArrayList<>();
+                for (int j = randy.nextInt(4); j > 0; j--) {
+                    insert.add(randomLine(randy));
+                }
+                list.replace(at, remove, insert);
+                index.replace(at, remove, insert.size());
+            }
+
+            int token = randy.nextInt(20);
+            IntOpenHashSet expected = new IntOpenHashSet();
+            for (int l = 0; l < list.size(); l++) {
+                for (int t : list.get(l)) {
+                    if (t == token) expected.add(l);
+                }
+            }
+            IntOpenHashSet actual = new IntOpenHashSet();
+            index.forEachLine(token, actual::add);
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static int[] randomLine(Random randy) {
+        int[] line = new int[randy.nextInt(5)];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = randy.nextInt(20);
+        }
+        return line;
+    }
+}
@@ -0,0 +1,53 @@
+package io.codechicken.diffpatch.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeIndexTests {
+
+    @Test
+    public void testQueriesMatchLinearScan() {
+        Random randy = new Random(0);
+        for (int run = 0; run < 20; run++) {
+            // Owners are the ranges themselves, shifted in place like applied patches.
+            List<LineRange> ranges = new ArrayList<>();
+            List<Integer> deltas = new ArrayList<>();
+            RangeIndex<LineRange> index = new RangeIndex<>();
+            for (int i = 0; i < 200; i++) {
+                int start = randy.nextInt(500);
+                LineRange range = LineRange.fromStartLen(start, randy.nextInt(run % 2 == 0 ? 4 : 40));
+                int delta = randy.nextInt(11) - 5;
+                if (randy.nextInt(4) == 0) {
+                    int loc = randy.nextInt(500);
+                    index.shiftAfter(loc, delta, r -> {
+                        r.setStart(r.getStart() + delta);
+                        r.setEnd(r.getEnd() + delta);
+                    });
+                }
+                ranges.add(range);
+                deltas.add(delta);
+                index.add(range, range, delta);
+
+                int loc = randy.nextInt(520) - 10;
+                int expectedDelta = 0;
+                for (int j = 0; j < ranges.size(); j++) {
+                    if (ranges.get(j).getEnd() <= loc) {
+                        expectedDelta += deltas.get(j);
+                    }
+                }
+                assertEquals(expectedDelta, index.deltaBefore(loc));
+
+                LineRange query = LineRange.fromStartLen(loc, randy.nextInt(10));
+                assertEquals(ranges.stream().anyMatch(r -> r.contains(query)), index.anyContains(query));
+
+                LineRange file = LineRange.fromStartLen(0, 510);
+                assertEquals(file.except(ranges), index.except(file));
+            }
+        }
+    }
+}